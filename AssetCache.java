@@ -0,0 +1,166 @@
+package starlock;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+
+/**
+ * AssetCache keeps decoded images around so that each file is only read from disk once, no matter how many bodies or levels use it.
+ * Images are keyed by their look reference (the file name), and are converted to a format that matches the screen so they draw
+ * quickly. The cache has a memory budget; when it goes over, the least recently used images are dropped.
+ *
+ * Images can also be prefetched on a background thread, e.g. the next level's planets while the success screen is up.
+ */
+public class AssetCache {
+
+	private static long budget = 64L * 1024 * 1024; // Roughly how many bytes of pixels to keep. 64 MB to begin with.
+	private static long bytes = 0; // Roughly how many bytes of pixels we're holding right now.
+
+	// The images themselves, least recently used first. Guarded by its own lock.
+	private static final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+	// Images somebody is decoding right now, so that nobody else starts decoding the same one.
+	private static final ConcurrentHashMap<String, FutureTask<BufferedImage>> pending = new ConcurrentHashMap<String, FutureTask<BufferedImage>>();
+
+	// One background thread for prefetching. It's a daemon so it never keeps the game from exiting.
+	private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Starlock asset prefetch");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	/**
+	 * Returns the image for the given reference, decoding it if it isn't cached. If another thread is already decoding it, waits
+	 * for that instead of decoding it twice. Returns null if the image can't be loaded.
+	 */
+	public static BufferedImage get(final String ref) {
+		BufferedImage img;
+		synchronized (images) {img = images.get(ref);}
+		if (img != null) {return img;}
+
+		FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(() -> load(ref));
+		FutureTask<BufferedImage> existing = pending.putIfAbsent(ref, task);
+		if (existing == null) {
+			existing = task;
+			task.run(); // We got here first, so we do the decoding.
+		}
+		try {
+			return existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** Starts loading the given images in the background, if they aren't cached already. Looks that are colors are skipped. */
+	public static void prefetch(Collection<String> refs) {
+		for (final String ref : refs) {
+			if (ref.isEmpty() || ref.charAt(0) == '#' || isCached(ref)) {continue;}
+			prefetcher.execute(() -> get(ref));
+		}
+	}
+
+	/** Returns true if the image is already decoded and cached. */
+	public static boolean isCached(String ref) {
+		synchronized (images) {return images.containsKey(ref);}
+	}
+
+	/** Sets the memory budget, in bytes, and drops images until we're under it. */
+	public static void setBudget(long b) {
+		synchronized (images) {
+			budget = b;
+			evict();
+		}
+	}
+
+	/** Forgets every cached image. */
+	public static void clear() {
+		synchronized (images) {
+			images.clear();
+			bytes = 0;
+		}
+	}
+
+	/** Decodes an image and puts it in the cache. Called by whichever thread won the race in get(). */
+	private static BufferedImage load(String ref) {
+		StarlockEvents.AssetDecode event = new StarlockEvents.AssetDecode();
+		event.begin();
+		try {
+			BufferedImage img = toCompatible(decode(ref));
+			if (event.shouldCommit()) {
+				event.ref = ref;
+				if (img != null) {
+					event.width = img.getWidth();
+					event.height = img.getHeight();
+					event.bytes = sizeOf(img);
+				}
+				event.commit();
+			}
+			if (img != null) {
+				synchronized (images) {
+					if (images.put(ref, img) == null) {bytes += sizeOf(img);}
+					evict();
+				}
+			}
+			return img;
+		} finally {
+			pending.remove(ref);
+		}
+	}
+
+	/** Reads an image file from disk. */
+	private static BufferedImage decode(String ref) {
+		BufferedImage source = null;
+		try {
+			source = ImageIO.read(new File(ref));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Could not load file: " + ref);
+			return null;
+		}
+		return source;
+	}
+
+	/** Copies an image into the screen's preferred format, so drawing it doesn't need a conversion every time. */
+	private static BufferedImage toCompatible(BufferedImage src) {
+		if (src == null || GraphicsEnvironment.isHeadless()) {return src;}
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+		if (src.getColorModel().equals(gc.getColorModel(src.getTransparency()))) {return src;} // Already there.
+		BufferedImage img = gc.createCompatibleImage(src.getWidth(), src.getHeight(), src.getTransparency());
+		Graphics2D g = img.createGraphics();
+		g.drawImage(src, 0, 0, null);
+		g.dispose();
+		return img;
+	}
+
+	/** Drops least recently used images until we're within budget. Always keeps at least the newest one. Call with the lock held. */
+	private static void evict() {
+		Iterator<Map.Entry<String, BufferedImage>> it = images.entrySet().iterator();
+		while (bytes > budget && images.size() > 1 && it.hasNext()) {
+			bytes -= sizeOf(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/** A rough size for an image: four bytes a pixel. */
+	private static long sizeOf(BufferedImage img) {
+		return 4L * img.getWidth() * img.getHeight();
+	}
+}
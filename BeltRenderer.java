@@ -0,0 +1,204 @@
+package starlock;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+/**
+ * BeltRenderer draws a system with thousands of bodies in it (an asteroid belt) without drawing thousands of things. The usual
+ * way, one drawOval and one image per body, is fine for a handful of planets and hopeless for 100,000.
+ *
+ * Instead:
+ * <ul>
+ * <li>Orbits are all added to one path and drawn in one go. Orbits that land on the same pixels (same circle, or near enough the
+ * same ellipse) are only added once, and when there are still too many to tell apart, runs of neighbouring orbits are collapsed
+ * into solid bands.</li>
+ * <li>Bodies are dots, written straight into the pixels of one image that's then drawn in one go, and a body that wouldn't
+ * cover any pixel not already covered is skipped.</li>
+ * <li>Solution markers are small squares, done the same way.</li>
+ * </ul>
+ * StarlockGUI switches to this by itself when a level has BELT_THRESHOLD bodies or more.
+ */
+public class BeltRenderer {
+
+	public static final int MAX_OUTLINES = 512; // More different orbits than this and dense ones turn into bands.
+	private static final int MIN_BAND = 3; // The fewest neighbouring orbits (one pixel apart) that make a band.
+	private static final int MARKER = 3; // Size of a solution marker, in pixels.
+	private static final int DOT = 3; // Size of a body, in pixels.
+
+	private static final Color BAND = new Color(128, 128, 128, 96);
+
+	private final int width, height;
+	private final int cx, cy; // Centre of the orbits.
+	private final BufferedImage dots; // The bodies, redrawn every frame...
+	private final int[] pixels; // ...by writing straight into its pixels.
+	private final BufferedImage marks; // The same again for the solution markers, only redrawn with the static layer.
+	private final int[] markPixels;
+	private int orbits, bands, markers, drawn; // What the last paints came out as, for the curious.
+
+	/**
+	 * A quick test of the BeltRenderer class. Makes a belt of random bodies, draws it a few times off-screen and reports how long
+	 * it took and how much was culled.
+	 */
+	public static void main(String[] args) {
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		Random r = new Random(1);
+		BodyGUI[] planets = new BodyGUI[n];
+		Body[] bodies = new Body[n];
+		for (int i = 0; i < n; i++) {
+			Body b = bodies[i] = new Body(120 + r.nextInt(200), 1 + r.nextInt(1000));
+			if (r.nextInt(4) == 0) {b.setOrbit(r.nextDouble() * 0.3, r.nextInt(Starlock.MINUTES));}
+			b.setLook("#b0a080");
+			b.setSolution(r.nextInt(Starlock.MINUTES));
+			b.setMinutes(r.nextInt(Starlock.MINUTES));
+			planets[i] = new BodyGUI(b);
+			planets[i].update(Starlock.MINUTES);
+		}
+		StarlockSnapshot snap = new StarlockSnapshot(0, null, bodies, n);
+		BeltRenderer belt = new BeltRenderer(700, 800, 350, 350);
+		BufferedImage screen = new BufferedImage(700, 800, BufferedImage.TYPE_INT_RGB);
+		for (int round = 0; round < 5; round++) {
+			Graphics2D g = screen.createGraphics();
+			long start = System.nanoTime();
+			belt.paintOrbits(g, planets, snap);
+			long mid = System.nanoTime();
+			belt.paintBodies(g, planets);
+			long end = System.nanoTime();
+			g.dispose();
+			System.out.printf("%d bodies: orbits %.1f ms, bodies %.1f ms%n", n, (mid - start) / 1e6, (end - mid) / 1e6);
+		}
+		System.out.println(belt);
+	}
+
+	public BeltRenderer(int width, int height, int cx, int cy) {
+		this.width = width;
+		this.height = height;
+		this.cx = cx;
+		this.cy = cy;
+		dots = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		pixels = ((DataBufferInt) dots.getRaster().getDataBuffer()).getData();
+		marks = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		markPixels = ((DataBufferInt) marks.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Draws every orbit and solution marker. This is the slow half, so it belongs in a cached layer, like BodyGUI.paintOrbit. Which
+	 * markers are green comes from the snapshot.
+	 */
+	public void paintOrbits(Graphics2D g, BodyGUI[] planets, StarlockSnapshot snap) {
+		// Which circles there are (by radius), and one example of each different ellipse.
+		BitSet circles = new BitSet();
+		LinkedHashMap<Long, Body> ellipses = new LinkedHashMap<Long, Body>();
+		for (BodyGUI p : planets) {
+			Body b = p.getBody();
+			if (b.isCircular()) {
+				circles.set(b.getDistance());
+			} else {
+				// Near enough the same ellipse: same size, eccentricity to a hundredth, and turned the same to the nearest degree.
+				long key = ((long) b.getDistance() << 32) | (Math.round(b.getEccentricity() * 100) << 16) | (b.getPeriapsis() / 60);
+				ellipses.putIfAbsent(key, b);
+			}
+		}
+
+		orbits = circles.cardinality() + ellipses.size();
+		Path2D.Float outlines = new Path2D.Float();
+		Path2D.Float belt = new Path2D.Float(Path2D.WIND_EVEN_ODD);
+		bands = 0;
+		if (orbits <= MAX_OUTLINES) {
+			for (int r = circles.nextSetBit(0); r >= 0; r = circles.nextSetBit(r + 1)) {outlines.append(circle(r), false);}
+			for (Body b : ellipses.values()) {appendEllipse(outlines, b);}
+		} else {
+			// Too many to see separately anyway. Treat the ellipses as circles the size of their semi-major axes, and fill in any
+			// run of orbits on neighbouring pixels as one band.
+			for (Body b : ellipses.values()) {circles.set(b.getDistance());}
+			for (int lo = circles.nextSetBit(0); lo >= 0; lo = circles.nextSetBit(lo)) {
+				int hi = circles.nextClearBit(lo);
+				if (hi - lo >= MIN_BAND) {
+					// An annulus: the outer circle and the inner one, with the even-odd rule leaving the middle empty.
+					belt.append(new Ellipse2D.Float(cx - hi + 0.5f, cy - hi + 0.5f, 2 * hi - 1, 2 * hi - 1), false);
+					belt.append(new Ellipse2D.Float(cx - lo + 0.5f, cy - lo + 0.5f, 2 * lo - 1, 2 * lo - 1), false);
+					bands++;
+				} else {
+					for (int r = lo; r < hi; r++) {outlines.append(circle(r), false);}
+				}
+				lo = hi;
+			}
+		}
+		g.setColor(BAND);
+		g.fill(belt);
+		g.setColor(Color.GRAY);
+		g.draw(outlines);
+
+		// Solution markers, the solved (green) ones first so the others don't cover them up.
+		Arrays.fill(markPixels, 0);
+		markers = 0;
+		int green = Color.GREEN.getRGB(), grey = Color.lightGray.getRGB();
+		for (int i = 0; i < planets.length; i++) {
+			BodyGUI p = planets[i];
+			if (snap.isSolved(i) && square(markPixels, cx + p.getSolutionX(), cy + p.getSolutionY(), MARKER, green)) {markers++;}
+		}
+		for (int i = 0; i < planets.length; i++) {
+			BodyGUI p = planets[i];
+			if (!snap.isSolved(i) && square(markPixels, cx + p.getSolutionX(), cy + p.getSolutionY(), MARKER, grey)) {markers++;}
+		}
+		g.drawImage(marks, 0, 0, null);
+	}
+
+	/** Draws every body, as a dot, in one go. */
+	public void paintBodies(Graphics2D g, BodyGUI[] planets) {
+		Arrays.fill(pixels, 0);
+		drawn = 0;
+		for (BodyGUI p : planets) {
+			if (square(pixels, cx + p.getX(), cy + p.getY(), DOT, p.getRGB())) {drawn++;}
+		}
+		g.drawImage(dots, 0, 0, null);
+	}
+
+	/**
+	 * Fills in the free pixels of a size by size square centred on (x, y) with the given colour. Does nothing and returns false if
+	 * there aren't any: the square is off the edge, or everything under it has been drawn already, by whatever got there first.
+	 */
+	private boolean square(int[] buffer, int x, int y, int size, int rgb) {
+		x -= size/2;
+		y -= size/2;
+		if (x < 0 || y < 0 || x + size > width || y + size > height) {return false;}
+		boolean any = false;
+		for (int j = 0; j < size; j++) {
+			int row = (y + j) * width + x;
+			for (int i = 0; i < size; i++) {
+				if (buffer[row + i] == 0) {
+					buffer[row + i] = rgb;
+					any = true;
+				}
+			}
+		}
+		return any;
+	}
+
+	private Ellipse2D.Float circle(int r) {
+		return new Ellipse2D.Float(cx - r, cy - r, 2 * r, 2 * r);
+	}
+
+	/** Adds an elliptical orbit to the path, placed the same way BodyGUI.paintOrbit places it. */
+	private void appendEllipse(Path2D.Float path, Body b) {
+		int d = b.getDistance();
+		double e = b.getEccentricity();
+		double minor = d * Math.sqrt(1 - e * e);
+		AffineTransform at = AffineTransform.getTranslateInstance(cx, cy);
+		at.rotate((b.getPeriapsis() - 5400) * PositionProvider.MINUTES_TO_RADIANS);
+		path.append(new Ellipse2D.Double(-d * e - d, -minor, 2 * d, 2 * minor).getPathIterator(at), false);
+	}
+
+	/** What the last paints drew. */
+	public String toString() {
+		return orbits + " different orbits (" + bands + " bands), " + markers + " solution markers and " + drawn + " bodies drawn";
+	}
+}
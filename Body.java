@@ -3,18 +3,31 @@ package starlock;
 
 /** 
  * A Body is a generic model representing any object orbiting in an astronomical system. It could be a planet, an asteroid 
- * whatever you like so long as it's a uniformly circular and regular orbit.
+ * whatever you like so long as it's a regular orbit. By default that's a uniform circle, but give it an eccentricity (see setOrbit)
+ * and it follows a Keplerian ellipse instead, speeding up near periapsis and dawdling at the far end.
  * @author Yusef Shari'ati
  */
 public class Body {
 
 	private int distance; // The distance, in pixels, from the central star.
-	private int period; // The number of years it takes this body to make one full rotation about the central star.
+	private long period; // The number of years it takes this body to make one full rotation about the central star. Long, since comets and outer planets can take a very long time.
 	private int minutes; // The current angle, in minutes (out of 21600 for a full circle).
 	private int solution; // The angle, in minutes, at which the solution is located (the target location which solves this particular planet).
 	private String look; // The appearance of this Body. Can be a hex color (e.g. #FF00FF) or a file reference (e.g. "venus.png").
+	private double eccentricity; // 0 for a circle (the default), up to but not including 1 for ever more stretched ellipses.
+	private int periapsis; // The angle, in minutes, of the point of the orbit closest to the star. Means nothing for a circle.
 	
-	public Body(int d, int p){
+	// Worked out by setOrbit, for elliptical orbits only. Every body still sits at 0 minutes at the conjunction, so these are the
+	// mean anomaly there, and the equation of centre (true anomaly less mean anomaly) there, which everything is measured from.
+	private KeplerSolver kepler;
+	private double meanAtConjunction;
+	private double centreAtConjunction;
+	
+	private static final double TWO_PI = 2 * Math.PI;
+	
+	Starlock owner; // The system this body is in, which keeps count of how many bodies are solved. Null if it isn't in one.
+	
+	public Body(int d, long p){
 		distance = d;
 		period = p;
 		minutes = 0;
@@ -22,7 +35,7 @@ public class Body {
 		look = "#00FF00"; //Default to a green color
 	}
 	
-	public Body(int d, int p, int m){
+	public Body(int d, long p, int m){
 		distance = d;
 		period = p;
 		solution = 0;
@@ -30,25 +43,168 @@ public class Body {
 		look = "#00FF00"; //Default to a green color
 	}
 
-	public Body(int d, int p, int m, String ref){
+	public Body(int d, long p, int m, String ref){
 		this(d, p, m);
 		look = ref; 
 	}
 	
 	public int getDistance() {return distance;}
-	public int getPeriod() {return period;}
+	public long getPeriod() {return period;}
 	public int getMinutes() {return minutes;}
 	public String getLook() {return look;}
 	public void setLook(String look) {this.look = look;}
 	public int getSolution() {return solution;}
+	public double getEccentricity() {return eccentricity;}
+	public int getPeriapsis() {return periapsis;}
+	public boolean isCircular() {return kepler == null;}
+	
+	/**
+	 * How far from the star the body is at the given angle. Just the distance for a circle. For an ellipse, the distance is the
+	 * semi-major axis and this is the usual r = a (1 - e^2) / (1 + e cos v), where v is the angle past periapsis. Anything that
+	 * turns angles into x,y (BodyGUI, PositionExporter) should use this, so they all agree.
+	 */
+	public double radiusAt(int minutes) {
+		if (kepler == null) {return distance;}
+		return distance * (1 - eccentricity * eccentricity) / (1 + eccentricity * Math.cos((minutes - periapsis) * PositionProvider.MINUTES_TO_RADIANS));
+	}
+	
+	/**
+	 * Puts this body on an elliptical orbit, with the given eccentricity (0 <= e < 1) and angle of periapsis (in minutes). Distance
+	 * becomes the semi-major axis. An eccentricity of 0 makes it a plain circle again.
+	 */
+	public void setOrbit(double e, int periapsis) {
+		KeplerSolver.checkEccentricity(e);
+		eccentricity = e;
+		this.periapsis = Starlock.pmod(periapsis, 21600);
+		if (e == 0) {
+			kepler = null;
+			return;
+		}
+		kepler = KeplerSolver.forEccentricity(e);
+		// At the conjunction we're at 0 minutes, i.e. the true anomaly is minus the periapsis. Work back to the mean anomaly.
+		double nu = -this.periapsis * TWO_PI / 21600;
+		if (nu <= -Math.PI) {nu += TWO_PI;}
+		double E = 2 * Math.atan2(Math.sqrt(1 - e) * Math.sin(nu / 2), Math.sqrt(1 + e) * Math.cos(nu / 2));
+		meanAtConjunction = E - e * Math.sin(E);
+		centreAtConjunction = nu - meanAtConjunction;
+	}
+	
+	/**
+	 * Returns the angle, in minutes, this body is at r years after the conjunction, for 0 <= r < period. For a circle that's just
+	 * Starlock.scale. For an ellipse we solve Kepler's equation. Either way it only ever goes up with r, starting from 0, which is
+	 * what lets the solvers treat every body the same.
+	 */
+	public int minutesAt(long r) {
+		if (kepler == null) {return Starlock.scale(r, period);}
+		return minutesAt(r, kepler.solve(reduce(meanAnomaly(r))));
+	}
+	
+	/** The mean anomaly r years after the conjunction, not reduced to a single turn. Only for elliptical orbits. */
+	double meanAnomaly(long r) {
+		return meanAtConjunction + TWO_PI * ((double) r / period);
+	}
 	
+	/**
+	 * The rest of minutesAt, given the eccentric anomaly E for the (reduced) mean anomaly at r. Split out so YearStepper can solve
+	 * Kepler's equation for a whole batch of bodies in one go.
+	 */
+	int minutesAt(long r, double E) {
+		if (r == 0) {return 0;}
+		double m = reduce(meanAnomaly(r));
+		double nu = KeplerSolver.trueAnomaly(E, eccentricity);
+		// How far we've gone round since the conjunction: the mean motion, plus the change in the equation of centre.
+		double angle = TWO_PI * ((double) r / period) + (nu - m) - centreAtConjunction;
+		int minutes = (int) Math.floor(angle * (21600 / TWO_PI));
+		return Math.max(0, Math.min(minutes, 21599)); // Rounding can nudge us a hair past either end.
+	}
+	
+	/** Brings an angle into [-pi, pi). */
+	static double reduce(double a) {
+		return (a >= -Math.PI && a < Math.PI) ? a : a - TWO_PI * Math.floor((a + Math.PI) / TWO_PI);
+	}
+	
+	/**
+	 * The inverse of minutesAt: returns the smallest r with minutesAt(r) >= m, for 0 <= m <= 21600 (21600 gives the period). So the
+	 * body is at angle m for exactly the residues [firstResidue(m), firstResidue(m + 1)), just like Starlock.firstResidue.
+	 */
+	public long firstResidue(int m) {
+		if (kepler == null) {return Starlock.firstResidue(m, period);}
+		if (m <= 0) {return 0;}
+		if (m >= 21600) {return period;}
+		// Run Kepler's equation backwards for a first guess: true anomaly to eccentric to mean anomaly, and so to years.
+		double e = eccentricity;
+		double nu = reduce((m - periapsis) * TWO_PI / 21600);
+		double E = 2 * Math.atan2(Math.sqrt(1 - e) * Math.sin(nu / 2), Math.sqrt(1 + e) * Math.cos(nu / 2));
+		double turns = (E - e * Math.sin(E) - meanAtConjunction) / TWO_PI;
+		turns -= Math.floor(turns);
+		long guess = Math.min((long) (turns * period), period - 1);
+		// Then find the edge exactly, widening around the guess until it's bracketed, then halving.
+		long lo, hi; // minutesAt(lo) < m <= minutesAt(hi), with minutesAt(period) counting as 21600.
+		long width = 1;
+		if (minutesAt(guess) >= m) {
+			hi = guess;
+			lo = guess - width;
+			while (lo > 0 && minutesAt(lo) >= m) {
+				hi = lo;
+				width = Math.min(width * 2, lo);
+				lo -= width;
+			}
+			if (lo <= 0) {lo = 0;} // And minutesAt(0) is 0, which is below m.
+		} else {
+			lo = guess;
+			hi = guess + width;
+			while (hi < period && minutesAt(hi) < m) {
+				lo = hi;
+				width = Math.min(width * 2, period - hi);
+				hi += width;
+			}
+			if (hi >= period) {hi = period;}
+		}
+		while (hi - lo > 1) {
+			long mid = lo + (hi - lo) / 2;
+			if (minutesAt(mid) >= m) {hi = mid;}
+			else {lo = mid;}
+		}
+		return hi;
+	}
+	
+	/**
+	 * Moves the body. If it's in a system, that system's snapshot is out of date now, so it's dropped, under the system's lock so
+	 * nobody can take a new one half way through.
+	 */
 	public void setMinutes(int m) {
+		Starlock sl = owner;
+		if (sl == null) {
+			move(m);
+			return;
+		}
+		synchronized (sl) {
+			move(m);
+			sl.bodiesChanged();
+		}
+	} 
+	
+	/** setMinutes for Starlock's own loops, which hold its lock already and drop the snapshot once when they're done. */
+	void move(int m) {
+		boolean was = (minutes == solution);
 		// This will even work with negative minutes -- will make positive.
 		minutes = Starlock.pmod(m, 21600); // Should constrain the variable to between 0 and 21599, with wrapping.
-	} 
+		if (owner != null && was != (minutes == solution)) {owner.solvedChanged(was);}
+	}
 	
+	/** Moves the solution. Like setMinutes, this drops the system's snapshot, since it says which bodies are solved. */
 	public void setSolution(int m) {
-		solution = Starlock.pmod(m,  21600);
+		Starlock sl = owner;
+		if (sl == null) {
+			solution = Starlock.pmod(m,  21600);
+			return;
+		}
+		synchronized (sl) {
+			boolean was = (minutes == solution);
+			solution = Starlock.pmod(m,  21600);
+			if (was != (minutes == solution)) {sl.solvedChanged(was);}
+			sl.bodiesChanged();
+		}
 	}
 	
 	/** Returns true if the planet is at the correct location.
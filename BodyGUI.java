@@ -2,6 +2,8 @@ package starlock;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 
 /** BodyGUI is a view that Has-A Body and adds x,y positional information for screen coordinates. */
@@ -13,17 +15,21 @@ public class BodyGUI {
 	private Body base; // Has-A relationship with a specific Body.
 	
 	private BufferedImage img;
+	private SpriteAtlas atlas; // Where img is drawn from, pre-scaled, if we were given one.
+	private int sprite = -1;
 	private Color color;
+	private int rgb; // The colour as one pixel, for drawing as a dot. Worked out once, since a belt asks for it every frame.
 	
-	private final double MINUTES_TO_RADIANS = 2.00 * Math.PI / 21600;
+	private static PositionProvider positions = TrigTable.INSTANCE; // How angles become x,y. Shared by all BodyGUIs.
+	
+	public static final int SIZE = 20; // How big a body is drawn on screen, in pixels, image or not.
 	
 	/** Set up this object with a pointer to a Body object. */
 	public BodyGUI(Body base) {
 		this.base = base;
 		// Calculate sx and sy -- they will never change.
-		// First take into account that 0 degrees is DUE NORTH, NOT DUE EAST! So subtract 5400 arcminutes. Then, convert to radians (multiply by 0.000290...). Finally, scale by distance.
-		sx = (int) (Math.cos((base.getSolution()-5400)*MINUTES_TO_RADIANS)*base.getDistance());
-		sy = (int) (Math.sin((base.getSolution()-5400)*MINUTES_TO_RADIANS)*base.getDistance()); 
+		sx = positions.getX(base.getSolution(), base.radiusAt(base.getSolution()));
+		sy = positions.getY(base.getSolution(), base.radiusAt(base.getSolution()));
 		color = Color.green; // A default color if everything else fails
 		// Should load up the appearance data in Body base.
 		if (base.getLook().charAt(0) == '#') {
@@ -36,21 +42,41 @@ public class BodyGUI {
 		} else {
 			img = StarlockGUI.loadImage(base.getLook());
 		}
+		rgb = color.getRGB();
+		if (img != null) {
+			int middle = img.getRGB(img.getWidth()/2, img.getHeight()/2);
+			if ((middle >>> 24) != 0) {rgb = middle | 0xFF000000;} // A see-through middle falls back on the default colour.
+		}
+	}
+	
+	/** As above, but the body's image goes into the atlas, scaled to SIZE, and is drawn from there. */
+	public BodyGUI(Body base, SpriteAtlas atlas) {
+		this(base);
+		if (img != null) {
+			this.atlas = atlas;
+			sprite = atlas.add(base.getLook(), img, SIZE, SIZE);
+		}
 	}
 
 	// Some getters and setters
 	public int getMinutes() {return minutes;}
 	public int getDistance() {return base.getDistance();}
+	public Body getBody() {return base;}
+	public int getSolutionX() {return sx;}
+	public int getSolutionY() {return sy;}
 	public int getX() {return x;}
 	public int getY() {return y;}
 	public void setX(int x) {this.x = x;}
 	public void setY(int y) {this.y = y;}
 	
+	/** Chooses how all BodyGUIs turn angles into positions, e.g. PositionProvider.MATH or TrigTable.INSTANCE (the default). */
+	public static void setPositionProvider(PositionProvider p) {positions = p;}
+	public static PositionProvider getPositionProvider() {return positions;}
+	
 	/** Calculates and sets the x,y position of the body based on its distance and minutes. (Zero, zero is origin) */
 	public void calcLoc() {
-		// First take into account that 0 degrees is DUE NORTH, NOT DUE EAST! So subtract 5400 arcminutes. Then, convert to radians (multiply by 0.000290...). Finally, scale by distance.
-		x = (int) (Math.cos((minutes-5400)*MINUTES_TO_RADIANS)*base.getDistance());
-		y = (int) (Math.sin((minutes-5400)*MINUTES_TO_RADIANS)*base.getDistance());
+		x = positions.getX(minutes, base.radiusAt(minutes));
+		y = positions.getY(minutes, base.radiusAt(minutes));
 	}
 
 	/**
@@ -64,7 +90,15 @@ public class BodyGUI {
 	
 	/** Call this function to update the visuals to match the model. Delta is how many arcminutes to rotate on this cycle, and thus dictates how fast the visuals are going to change to match the model. */
 	public int update(int delta) {
-		int diff = base.getMinutes() - minutes; // How far has the model deviated from this view?
+		return update(delta, base.getMinutes());
+	}
+	
+	/**
+	 * As above, but rotates towards the given angle instead of reading it from the Body. Pass in the angle from a StarlockSnapshot
+	 * and the view never has to touch the model while another thread might be changing it.
+	 */
+	public int update(int delta, int target) {
+		int diff = target - minutes; // How far has the model deviated from this view?
 		
 		// The next two lines determine the shortest path to rotate. I don't want a planet rotating 315 degrees around the star when 45 degrees in the opposite direction will do it.
 		if (diff <= -Starlock.MINUTES/2) {diff += Starlock.MINUTES;}
@@ -86,33 +120,69 @@ public class BodyGUI {
 	
 	
 	/**
-	 * Draw this graphical body
+	 * Draw this graphical body: its orbit, its solution circle and the body itself.
 	 * @param g -- the graphics context
 	 * @param cx -- x and y are the center of the screen, necessary because planets are oriented relative to this.
 	 * @param cy
+	 * @param solved -- whether the body is on its solution, e.g. from StarlockSnapshot.isSolved(i).
+	 */
+	public void paint(Graphics g, int cx, int cy, boolean solved) {
+		paintOrbit(g, cx, cy, solved);
+		paintBody(g, cx, cy);
+	}
+	
+	/**
+	 * Draw the parts of this body that don't move: the orbit and the solution circle. These only change when the body is solved
+	 * or unsolved, so they can be drawn once into a cached layer. Whether it's solved comes from the caller (from a
+	 * StarlockSnapshot), not the Body, which might be half way through changing on another thread.
 	 */
-	public void paint(Graphics g, int cx, int cy) {
+	public void paintOrbit(Graphics g, int cx, int cy, boolean solved) {
 		// Draw the orbit
 		g.setColor(Color.GRAY);
 		int d = base.getDistance();
-		g.drawOval(cx - d, cy - d, 2*d, 2*d);
+		if (base.isCircular()) {
+			g.drawOval(cx - d, cy - d, 2*d, 2*d);
+		} else {
+			// The star sits at one focus, a*e from the middle of the ellipse, on the far side from periapsis. So turn to face the
+			// periapsis (the same way PositionProvider turns minutes into angles) and the ellipse is just off to one side.
+			double e = base.getEccentricity();
+			double b = d * Math.sqrt(1 - e * e);
+			Graphics2D g2 = (Graphics2D) g.create();
+			g2.translate(cx, cy);
+			g2.rotate((base.getPeriapsis() - 5400) * PositionProvider.MINUTES_TO_RADIANS);
+			g2.draw(new Ellipse2D.Double(-d * e - d, -b, 2 * d, 2 * b));
+			g2.dispose();
+		}
 		
 		// Draw the solution circle
-		if (base.isSolved()) {g.setColor(Color.GREEN);}
+		if (solved) {g.setColor(Color.GREEN);}
 		else {g.setColor(Color.lightGray);}
 		g.drawOval(cx + sx - 12, cy + sy - 12, 23, 23);
-		
-		if (img != null) {
-			// If there's an image, let's draw it
-			g.drawImage(img, x, y, x + img.getWidth(), y + img.getHeight(), 0, 0, img.getWidth(), img.getHeight(), null);
+	}
+	
+	/** Draw the moving part: the body itself. */
+	public void paintBody(Graphics g, int cx, int cy) {
+		if (atlas != null) {
+			// Straight out of the atlas, already the right size.
+			atlas.draw(g, sprite, cx + x - SIZE/2, cy + y - SIZE/2);
+		}
+		else if (img != null) {
+			// If there's an image, let's draw it, centred on the body just like the circle below.
+			g.drawImage(img, cx + x - SIZE/2, cy + y - SIZE/2, SIZE, SIZE, null);
 		}
 		else {
 			// Draw the body with primitives
 			g.setColor(color);
-			g.fillOval(cx + x - 10, cy + y - 10, 20, 20);
+			g.fillOval(cx + x - SIZE/2, cy + y - SIZE/2, SIZE, SIZE);
 		}		
 	}
 	
+	/**
+	 * The body's colour as a single ARGB pixel, for drawing it as a dot when there are too many bodies to draw properly. For an
+	 * image, the colour at its middle.
+	 */
+	public int getRGB() {return rgb;}
+	
 	
 	// End of Class
 }
@@ -5,6 +5,7 @@ import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.Random;
 
 /**
  * DigitBox is a visual area on the screen which displays a single numeral (albeit not an Arabic one!). It acts very similarly to one of the digit wheels on a bicycle lock.
@@ -21,20 +22,31 @@ public class DigitBox extends Rectangle {
 	
 	private int mouseState; // Tells us if the mouse is hovering (1), clicking (2), or not (0).
 	
+	private SpriteAtlas atlas; // If set, the background comes out of here instead, already cut out at our offset.
+	private int sprite = -1;
+	
 	public DigitBox(int x, int y, int width, int height, BufferedImage b){
+		this(x, y, width, height, b, new Random());
+	}
+	
+	/** As above, but the background offset comes from the given Random, so the same seed always gives the same look. */
+	public DigitBox(int x, int y, int width, int height, BufferedImage b, Random random){
 		super(x, y, width, height);
 		value = 0;
 		background = b;
 		offset = new Point();
-		offset.x = (int) (Math.random()*(background.getWidth() - width));
+		offset.x = (int) (random.nextDouble()*(background.getWidth() - width));
 		offset.x = Math.max(offset.x, 0);
-		offset.y = (int) (Math.random()*(background.getHeight() - height));
+		offset.y = (int) (random.nextDouble()*(background.getHeight() - height));
 		offset.y = Math.max(offset.y, 0);
 	}
 	
 	public void draw(Graphics G){
 		
-		if (background != null) {
+		if (atlas != null) {
+			atlas.draw(G, sprite, x, y);
+		}
+		else if (background != null) {
 			G.drawImage(background, x, y, x + width, y + height, offset.x, offset.y, offset.x + width, offset.y + height, null); 
 		}
 		
@@ -49,8 +61,19 @@ public class DigitBox extends Rectangle {
 		value = (value + 1) % 7;
 	}
 	
+	/**
+	 * Puts this box's piece of the background into the atlas, so it's drawn from there from now on. The key should be different
+	 * for every box, since each has its own offset.
+	 */
+	public void useAtlas(SpriteAtlas atlas, String key){
+		if (background == null) {return;}
+		sprite = atlas.add(key, background, offset.x, offset.y, width, height, width, height);
+		this.atlas = atlas;
+	}
+	
 	// Getters and setters
 	public int getValue() {return value;}
+	public Point getOffset() {return new Point(offset);}
 	public void setState(int s) {mouseState = s;}
 	
 	public void setValue(int v) {value = v;}
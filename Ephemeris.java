@@ -0,0 +1,205 @@
+package starlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An Ephemeris is a table of where every body in a system is, for every year in a range, worked out ahead of time and kept in a
+ * file. The file is memory-mapped read-only, so looking up a year is a couple of multiplications and a few reads straight out of
+ * the page cache: no Body objects, no arithmetic on periods, and nothing on the heap. Any number of processes can map the same
+ * file and share the pages.
+ *
+ * If every body comes back to where it started within the range (the least common multiple of the periods is no longer than the
+ * range), only that one cycle is stored, and the ephemeris then answers for any year at all.
+ *
+ * Layout (all numbers big-endian):
+ * <pre>
+ * Header     int magic ('SLEP'), int version, int bodyCount, int flags (1 = cyclic), long firstYear, long rowCount
+ * Rows       for each year from firstYear: short minutes for each body
+ * </pre>
+ * Files can be larger than 2 GB; they're mapped in chunks of whole rows.
+ */
+public class Ephemeris {
+
+	public static final int MAGIC = 0x534C4550; // 'SLEP'
+	public static final int VERSION = 1;
+	public static final int FLAG_CYCLIC = 1;
+
+	private static final int HEADER_SIZE = 32;
+	private static final long CHUNK_SIZE = 1L << 30; // The most we map in one go.
+
+	private final int numBodies;
+	private final boolean cyclic;
+	private final long firstYear;
+	private final long rows;
+	private final int rowSize; // Bytes per year.
+	private final long rowsPerChunk;
+	private final MappedByteBuffer[] chunks;
+
+	/**
+	 * Builds an ephemeris for a level, then reads a few years back and checks them against changeYear.
+	 * Usage: Ephemeris levelFile level from to output
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.out.println("Usage: Ephemeris <levelFile> <level> <from> <to> <output>");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		Starlock SL = (LevelPack.isPack(path) ? LevelPack.open(path) : LevelIndex.open(path)).get(Integer.parseInt(args[1]));
+		long from = Long.parseLong(args[2]);
+		long to = Long.parseLong(args[3]);
+		long start = System.nanoTime();
+		write(SL, from, to, Paths.get(args[4]));
+		System.out.println("Wrote ephemeris in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		Ephemeris eph = open(Paths.get(args[4]));
+		System.out.println(eph.getRows() + " rows of " + eph.getNumBodies() + " bodies" + (eph.isCyclic() ? ", cyclic" : ""));
+		int[] out = new int[eph.getNumBodies()];
+		int bad = 0;
+		for (long y = from; y < to; y += Math.max(1, (to - from) / 1000)) {
+			eph.getMinutes(y, out);
+			SL.changeYear(y);
+			for (int i = 0; i < out.length; i++) {
+				if (out[i] != SL.getBody(i).getMinutes()) {bad++;}
+			}
+		}
+		System.out.println(bad + " mismatches");
+	}
+
+	/**
+	 * Works out the positions of every body in the years [from, to) and writes them to a file. If the system repeats itself within
+	 * the range, only one cycle is written.
+	 */
+	public static void write(Starlock sl, long from, long to, Path file) throws IOException {
+		if (to <= from) {throw new IllegalArgumentException("Empty range: " + from + " to " + to);}
+		int n = sl.getNumBodies();
+		long range = to - from;
+		if (range < 0) {range = Long.MAX_VALUE;} // Overflowed; the range is enormous anyway.
+		long cycle = cycle(sl);
+		boolean cyclic = (cycle > 0 && cycle <= range);
+		long rows = cyclic ? cycle : range;
+		if (rows > (Long.MAX_VALUE - HEADER_SIZE) / Math.max(1, 2 * n)) {throw new IllegalArgumentException("Ephemeris would be too large: " + rows + " years");}
+
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer b = ByteBuffer.allocateDirect(1 << 20);
+			b.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(cyclic ? FLAG_CYCLIC : 0).putLong(from).putLong(rows);
+
+			YearStepper ys = sl.stepper(from, from + rows, 1);
+			while (ys.hasNext()) {
+				int[] minutes = ys.next();
+				for (int i = 0; i < n; i++) {
+					if (b.remaining() < 2) {drain(b, fc);}
+					b.putShort((short) minutes[i]);
+				}
+			}
+			drain(b, fc);
+		}
+	}
+
+	/** Writes out everything in the buffer and empties it. */
+	private static void drain(ByteBuffer b, FileChannel fc) throws IOException {
+		b.flip();
+		while (b.hasRemaining()) {fc.write(b);}
+		b.clear();
+	}
+
+	/** Returns the number of years after which every body is back where it started, or 0 if that doesn't fit in a long. */
+	static long cycle(Starlock sl) {
+		long[] periods = new long[sl.getNumBodies()];
+		for (int i = 0; i < periods.length; i++) {periods[i] = sl.getBody(i).getPeriod();}
+		return cycle(periods);
+	}
+
+	/** Returns the least common multiple of the periods, or 0 if that doesn't fit in a long. */
+	static long cycle(long[] periods) {
+		long l = 1;
+		for (long p : periods) {
+			long m = p / StarlockSolver.gcd(l, p);
+			if (l > Long.MAX_VALUE / m) {return 0;}
+			l *= m;
+		}
+		return l;
+	}
+
+	/** Maps an ephemeris file. The file is shared with anyone else who has it mapped. */
+	public static Ephemeris open(Path path) throws IOException {
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new Ephemeris(path, fc);
+		}
+	}
+
+	private Ephemeris(Path path, FileChannel fc) throws IOException {
+		ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+		while (h.hasRemaining() && fc.read(h, h.position()) >= 0) {}
+		if (h.hasRemaining() || h.getInt(0) != MAGIC) {throw new IOException("Not an ephemeris: " + path);}
+		if (h.getInt(4) != VERSION) {throw new IOException("Unsupported ephemeris version: " + h.getInt(4));}
+		numBodies = h.getInt(8);
+		cyclic = (h.getInt(12) & FLAG_CYCLIC) != 0;
+		firstYear = h.getLong(16);
+		rows = h.getLong(24);
+		if (numBodies < 0 || numBodies > CHUNK_SIZE / 2 || rows < 0) {throw new IOException("Corrupt ephemeris header: " + path);}
+		rowSize = 2 * numBodies;
+		long size;
+		try {
+			size = Math.addExact(HEADER_SIZE, Math.multiplyExact(rows, (long) rowSize));
+		} catch (ArithmeticException e) {
+			// More rows than any file could hold. Left to wrap, it could sneak past the check below and blow up in map() instead.
+			throw new IOException("Corrupt ephemeris header: " + path);
+		}
+		if (fc.size() < size) {throw new IOException("Ephemeris is truncated: " + path);}
+
+		// Map whole rows at a time, so that a row never straddles two chunks.
+		rowsPerChunk = (rowSize == 0) ? Math.max(1, rows) : CHUNK_SIZE / rowSize;
+		int count = (int) ((rows + rowsPerChunk - 1) / rowsPerChunk);
+		chunks = new MappedByteBuffer[count];
+		for (int c = 0; c < count; c++) {
+			long first = c * rowsPerChunk;
+			long length = Math.min(rowsPerChunk, rows - first) * rowSize;
+			chunks[c] = fc.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * rowSize, length);
+		}
+	}
+
+	/** Returns true if the ephemeris has positions for the given year. A cyclic one has every year. */
+	public boolean covers(long year) {
+		if (cyclic) {return true;}
+		long r = year - firstYear; // Goes negative if the subtraction overflows, which is just as out of range.
+		return year >= firstYear && r >= 0 && r < rows;
+	}
+
+	/** Returns the row holding the given year. */
+	private long row(long year) {
+		if (cyclic) {
+			// (year - firstYear) mod rows, without overflowing the subtraction.
+			long r = Starlock.pmod(year, rows) - Starlock.pmod(firstYear, rows);
+			return (r < 0) ? r + rows : r;
+		}
+		if (!covers(year)) {throw new IndexOutOfBoundsException("Year " + year + " isn't in the ephemeris");}
+		return year - firstYear;
+	}
+
+	/** Returns the angle of one body in the given year. */
+	public int getMinutes(long year, int body) {
+		if (body < 0 || body >= numBodies) {throw new IndexOutOfBoundsException("Body " + body + " of " + numBodies);}
+		long r = row(year);
+		return chunks[(int) (r / rowsPerChunk)].getShort((int) (r % rowsPerChunk) * rowSize + 2 * body);
+	}
+
+	/** Fills out with the angle of every body in the given year. out must have room for getNumBodies() entries. */
+	public void getMinutes(long year, int[] out) {
+		long r = row(year);
+		MappedByteBuffer chunk = chunks[(int) (r / rowsPerChunk)];
+		int pos = (int) (r % rowsPerChunk) * rowSize;
+		for (int i = 0; i < numBodies; i++, pos += 2) {out[i] = chunk.getShort(pos);}
+	}
+
+	public int getNumBodies() {return numBodies;}
+	public boolean isCyclic() {return cyclic;}
+	public long getFirstYear() {return firstYear;}
+	public long getRows() {return rows;}
+}
@@ -0,0 +1,403 @@
+package starlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * EventSearch finds the years in which some bodies of a Starlock system line up, within a tolerance. It can look for:
+ * <ul>
+ * <li>bodies near given angles (e.g. near their solution circles: a close-enough solve),</li>
+ * <li>conjunctions, where the bodies all sit within an arc a given number of minutes wide,</li>
+ * <li>syzygies, where the bodies all sit within that tolerance of one line through the star, on either side of it.</li>
+ * </ul>
+ * Events are reported in order, as runs of consecutive years [start, end).
+ *
+ * Rather than trying every year, it works with residues. A body is within a range of angles for exactly one run of residues
+ * modulo its period, so from any year we can tell how long each body will stay in its range, or how long until it gets back to
+ * it. If any body is out of its range, we can skip straight to the latest of those "how long until" years, since nothing before
+ * then can be an event. If every body is in range, they all stay there until the soonest of the "how long" years, so that whole
+ * run is an event. And when every body comes back round within the search range (the LCM of their periods is short), only one
+ * cycle is searched, and its events are repeated for the rest.
+ *
+ * Conjunctions and syzygies have no fixed angles to aim for, so the circle is cut into sectors and we take one body (the pivot) in
+ * each sector in turn. The others must then be near that sector, which gives them ranges to search as above. Those candidate
+ * runs are checked exactly, again jumping from one change of angle to the next.
+ */
+public class EventSearch {
+
+	/** Called with each event, in order. Return false to stop the search. */
+	public interface Listener {
+		public boolean found(long start, long end);
+	}
+
+	/** A run of years [start, end) in which the event holds. */
+	public static class Event {
+		private final long start, end;
+
+		public Event(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		public long getStart() {return start;}
+		public long getEnd() {return end;}
+		public long getLength() {return end - start;}
+		public String toString() {return (end - start == 1) ? "Year " + start : "Years " + start + " to " + (end - 1);}
+	}
+
+	/** Years searched per batch in the sector searches. Events are sorted within a batch before they're reported. */
+	private static final long BATCH = 1L << 24;
+	/** The most events from one cycle we'll keep in memory to repeat. Beyond this, we search the whole range instead. */
+	private static final int MAX_CYCLE_EVENTS = 1 << 16;
+
+	private final long conjunction;
+	private final Body[] orbits; // The bodies we care about. Only their orbits are used, never their current angles.
+	private final long[] periods; // And their periods.
+	private final int[] targets; // Target angle of each, or null for conjunctions and syzygies.
+	private final int tolerance; // In minutes.
+	private final int circle; // MINUTES for conjunctions, MINUTES / 2 for syzygies, where opposite angles count as the same.
+
+	/**
+	 * A quick test of the EventSearch class. Finds close solves of the first level and conjunctions of a few bodies.
+	 */
+	public static void main(String[] args) {
+		Starlock SL = new Starlock("Test", 0);
+		SL.addBody(50, 7, 6171, "#FF0000");
+		SL.addBody(100, 365, 177, "#00FF00");
+		SL.addBody(150, 4332, 0, "#0000FF");
+
+		System.out.println("Within 60 minutes of the solutions, years 0 to 1000000:");
+		for (Event e : nearSolutions(SL, 60).find(0, 1000000, 10)) {System.out.println("  " + e);}
+		System.out.println("Conjunctions within 30 minutes, years 0 to 100000:");
+		for (Event e : conjunction(SL, new int[] {0, 1, 2}, 30).find(0, 100000, 10)) {System.out.println("  " + e);}
+		System.out.println("Syzygies within 30 minutes, years 0 to 100000:");
+		for (Event e : syzygy(SL, new int[] {0, 1, 2}, 30).find(0, 100000, 10)) {System.out.println("  " + e);}
+	}
+
+	private EventSearch(Starlock sl, int[] bodies, int[] targets, int tolerance, int circle) {
+		if (tolerance < 0) {throw new IllegalArgumentException("Tolerance must not be negative: " + tolerance);}
+		if (targets != null && targets.length != bodies.length) {throw new IllegalArgumentException("Need one target per body");}
+		conjunction = sl.getConjunctionYear();
+		orbits = new Body[bodies.length];
+		periods = new long[bodies.length];
+		Body[] all = sl.getBodies();
+		for (int i = 0; i < bodies.length; i++) {
+			if (bodies[i] < 0 || bodies[i] >= sl.getNumBodies()) {throw new IndexOutOfBoundsException("Body " + bodies[i] + " of " + sl.getNumBodies());}
+			orbits[i] = all[bodies[i]];
+			periods[i] = orbits[i].getPeriod();
+		}
+		this.targets = (targets == null) ? null : targets.clone();
+		this.tolerance = tolerance;
+		this.circle = circle;
+	}
+
+	/** Years in which each of the given bodies is within tolerance minutes of its target angle. */
+	public static EventSearch near(Starlock sl, int[] bodies, int[] targets, int tolerance) {
+		return new EventSearch(sl, bodies, targets, tolerance, Starlock.MINUTES);
+	}
+
+	/** Years in which every body is within tolerance minutes of its solution circle. With a tolerance of 0, that's isSolved(). */
+	public static EventSearch nearSolutions(Starlock sl, int tolerance) {
+		int[] bodies = new int[sl.getNumBodies()];
+		int[] targets = new int[bodies.length];
+		for (int i = 0; i < bodies.length; i++) {
+			bodies[i] = i;
+			targets[i] = sl.getBody(i).getSolution();
+		}
+		return near(sl, bodies, targets, tolerance);
+	}
+
+	/** Years in which the given bodies all lie within an arc tolerance minutes wide. */
+	public static EventSearch conjunction(Starlock sl, int[] bodies, int tolerance) {
+		return new EventSearch(sl, bodies, null, tolerance, Starlock.MINUTES);
+	}
+
+	/** Years in which the given bodies all lie within tolerance minutes of a line through the star, on either side. */
+	public static EventSearch syzygy(Starlock sl, int[] bodies, int tolerance) {
+		return new EventSearch(sl, bodies, null, tolerance, Starlock.MINUTES / 2);
+	}
+
+	/** Returns up to max events in the years [from, to). */
+	public List<Event> find(long from, long to, final int max) {
+		final List<Event> events = new ArrayList<Event>();
+		if (max <= 0) {return events;}
+		search(from, to, (start, end) -> {
+			events.add(new Event(start, end));
+			return events.size() < max;
+		});
+		return events;
+	}
+
+	/** Reports every event in the years [from, to) to the listener, in order, until it asks to stop. */
+	public void search(long from, long to, Listener listener) {
+		if (to <= from) {return;}
+		Emitter out = new Emitter(listener);
+		long cycle = Ephemeris.cycle(periods);
+		if (cycle > 0 && distance(from, to) / 2 > cycle) {
+			// Everything repeats every cycle years. Search the first cycle, then copy it.
+			final List<Event> once = new ArrayList<Event>();
+			Emitter collect = new Emitter((start, end) -> {
+				once.add(new Event(start, end));
+				return once.size() <= MAX_CYCLE_EVENTS;
+			});
+			raw(from, from + cycle, collect);
+			collect.finish();
+			if (once.size() <= MAX_CYCLE_EVENTS) {
+				long range = distance(from, to);
+				for (long base = 0; base >= 0 && base < range && !out.stopped; base += cycle) {
+					for (Event e : once) {
+						if (e.start - from + base >= range) {break;}
+						long start = e.start + base;
+						out.emit(start, (distance(start, to) <= e.end - e.start) ? to : e.end + base);
+						if (out.stopped) {break;}
+					}
+				}
+				out.finish();
+				return;
+			}
+		}
+		raw(from, to, out);
+		out.finish();
+	}
+
+	/** Searches [from, to) without any cycle tricks. */
+	private void raw(long from, long to, Emitter out) {
+		int n = periods.length;
+		if (targets != null || n < 2 || tolerance >= circle - 1) {
+			// Fixed windows. Conjunctions of fewer than two bodies, or with tolerances that take in the whole circle, always hold.
+			Window[] windows = new Window[n];
+			for (int i = 0; i < n; i++) {
+				windows[i] = (targets != null) ? new Window(orbits[i], targets[i] - tolerance, 2 * tolerance + 1, Starlock.MINUTES) : Window.full(orbits[i]);
+			}
+			sweep(windows, from, to, out);
+			return;
+		}
+
+		// Take the slowest body as the pivot, since it lingers longest in each sector, and put it first.
+		int pivot = 0;
+		for (int i = 1; i < n; i++) {
+			if (periods[i] > periods[pivot]) {pivot = i;}
+		}
+		int width = tolerance + 1;
+		int sectors = (circle + width - 1) / width;
+		Window[][] windows = new Window[sectors][n];
+		for (int s = 0; s < sectors; s++) {
+			int c = s * width;
+			for (int i = 0; i < n; i++) {
+				windows[s][i] = (i == pivot) ? new Window(orbits[i], c, Math.min(width, circle - c), circle)
+											: new Window(orbits[i], c - tolerance, width + 2 * tolerance, circle);
+			}
+		}
+
+		// Each year puts the pivot in exactly one sector, so the sectors' events never overlap; they just need sorting.
+		final Verifier check = new Verifier();
+		final List<Event> batch = new ArrayList<Event>();
+		for (long start = from; start < to && !out.stopped; ) {
+			long end = (distance(start, to) <= BATCH) ? to : start + BATCH;
+			batch.clear();
+			for (int s = 0; s < sectors; s++) {
+				Emitter candidates = new Emitter((a, b) -> {
+					check.verify(a, b, batch);
+					return true;
+				});
+				sweep(windows[s], start, end, candidates);
+				candidates.finish();
+			}
+			batch.sort(Comparator.comparingLong(Event::getStart));
+			for (Event e : batch) {
+				out.emit(e.start, e.end);
+				if (out.stopped) {break;}
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * The core jump sweep. Reports the runs of years in [from, to) at which every body is inside its window, skipping the years
+	 * in which some body can't be.
+	 */
+	private void sweep(Window[] windows, long from, long to, Emitter out) {
+		long year = from;
+		while (year < to && !out.stopped) {
+			long jump = 0; // How far until every body that's out could be back in.
+			long stay = Long.MAX_VALUE; // How long until a body that's in leaves.
+			for (Window w : windows) {
+				long r = w.residue(year, conjunction);
+				long s = w.stay(r);
+				if (s == 0) {jump = Math.max(jump, w.until(r));}
+				else {stay = Math.min(stay, s);}
+			}
+			long room = distance(year, to);
+			if (jump > 0) {
+				if (jump >= room) {break;}
+				year += jump;
+				continue;
+			}
+			long end = (stay >= room) ? to : year + stay;
+			out.emit(year, end);
+			year = end;
+		}
+	}
+
+	/** Checks candidate runs exactly for the conjunction and syzygy searches. */
+	private class Verifier {
+		private final long[] conj = new long[periods.length]; // The conjunction year modulo each period.
+		private final int[] angles = new int[periods.length];
+
+		Verifier() {
+			for (int i = 0; i < periods.length; i++) {conj[i] = Starlock.pmod(conjunction, periods[i]);}
+		}
+
+		/** Adds the parts of [from, to) in which the bodies really are lined up to the list. */
+		void verify(long from, long to, List<Event> found) {
+			long runStart = 0;
+			boolean inRun = false;
+			long year = from;
+			while (year < to) {
+				// Where is everyone, and how long until somebody moves on to the next minute?
+				long hold = Long.MAX_VALUE;
+				for (int i = 0; i < periods.length; i++) {
+					long p = periods[i];
+					long r = Starlock.pmod(year, p) - conj[i];
+					if (r < 0) {r += p;}
+					int m = orbits[i].minutesAt(r);
+					angles[i] = m % circle;
+					hold = Math.min(hold, orbits[i].firstResidue(m + 1) - r);
+				}
+				boolean ok = inArc();
+				long next = (hold >= distance(year, to)) ? to : year + hold;
+				if (ok && !inRun) {runStart = year; inRun = true;}
+				if (!ok && inRun) {found.add(new Event(runStart, year)); inRun = false;}
+				year = next;
+			}
+			if (inRun) {found.add(new Event(runStart, to));}
+		}
+
+		/** True if the angles all fit in an arc tolerance wide, i.e. there's a gap of at least circle - tolerance between two of them. */
+		private boolean inArc() {
+			Arrays.sort(angles);
+			int gap = angles[0] + circle - angles[angles.length - 1];
+			for (int i = 1; i < angles.length; i++) {gap = Math.max(gap, angles[i] - angles[i - 1]);}
+			return gap >= circle - tolerance;
+		}
+	}
+
+	/** Joins up touching runs before passing them on, and remembers whether the listener has had enough. */
+	private static class Emitter {
+		private final Listener listener;
+		private long start, end;
+		private boolean pending = false;
+		boolean stopped = false;
+
+		Emitter(Listener listener) {
+			this.listener = listener;
+		}
+
+		void emit(long s, long e) {
+			if (pending && s == end) {
+				end = e;
+				return;
+			}
+			finish();
+			start = s;
+			end = e;
+			pending = !stopped;
+		}
+
+		void finish() {
+			if (pending && !stopped) {stopped = !listener.found(start, end);}
+			pending = false;
+		}
+	}
+
+	/**
+	 * The residues, modulo one body's period, at which that body's angle is inside a range of minutes. Kept as a few sorted,
+	 * separate runs [lo, hi). For syzygies the range comes twice round the circle, half a turn apart. ResidueIndex uses these too.
+	 */
+	static class Window {
+		final Body body;
+		final long p;
+		long[] lo, hi;
+
+		/** The window for angles first, first + 1, ..., first + width - 1 (wrapping), on a circle of the given size. */
+		Window(Body body, int first, int width, int circle) {
+			this.body = body;
+			p = body.getPeriod();
+			if (width >= circle) {
+				lo = new long[] {0};
+				hi = new long[] {p};
+				return;
+			}
+			first = Starlock.pmod(first, circle);
+			List<long[]> runs = new ArrayList<long[]>();
+			for (int base = 0; base < Starlock.MINUTES; base += circle) {
+				int a = first + base;
+				if (a + width <= Starlock.MINUTES) {
+					addRun(runs, a, a + width);
+				} else {
+					addRun(runs, a, Starlock.MINUTES);
+					addRun(runs, 0, a + width - Starlock.MINUTES);
+				}
+			}
+			runs.sort(Comparator.comparingLong(r -> r[0]));
+			// Merge runs that touch.
+			List<long[]> merged = new ArrayList<long[]>();
+			for (long[] r : runs) {
+				if (!merged.isEmpty() && merged.get(merged.size() - 1)[1] >= r[0]) {
+					long[] last = merged.get(merged.size() - 1);
+					last[1] = Math.max(last[1], r[1]);
+				} else {
+					merged.add(r);
+				}
+			}
+			lo = new long[merged.size()];
+			hi = new long[merged.size()];
+			for (int k = 0; k < lo.length; k++) {
+				lo[k] = merged.get(k)[0];
+				hi[k] = merged.get(k)[1];
+			}
+		}
+
+		static Window full(Body body) {
+			return new Window(body, 0, Starlock.MINUTES, Starlock.MINUTES);
+		}
+
+		/** Adds the residues for the angles [a, b). Short periods skip some angles altogether, so the run may be empty. */
+		private void addRun(List<long[]> runs, int a, int b) {
+			long rlo = body.firstResidue(a);
+			long rhi = body.firstResidue(b);
+			if (rlo < rhi) {runs.add(new long[] {rlo, rhi});}
+		}
+
+		/** The residue of the given year, i.e. (year - conjunction) mod p, without overflowing. */
+		long residue(long year, long conjunction) {
+			long r = Starlock.pmod(year, p) - Starlock.pmod(conjunction, p);
+			return (r < 0) ? r + p : r;
+		}
+
+		/** How many more years, from residue r, the body stays in the window. 0 if it isn't in it. */
+		long stay(long r) {
+			for (int k = 0; k < lo.length; k++) {
+				if (r >= lo[k] && r < hi[k]) {return hi[k] - r;}
+			}
+			return 0;
+		}
+
+		/** How many years, from residue r, until the body next enters the window. Long.MAX_VALUE if it never does. */
+		long until(long r) {
+			if (lo.length == 0) {return Long.MAX_VALUE;}
+			for (int k = 0; k < lo.length; k++) {
+				if (lo[k] > r) {return lo[k] - r;}
+			}
+			return p - r + lo[0];
+		}
+	}
+
+	/** to - from, for from <= to, or Long.MAX_VALUE if that doesn't fit in a long. */
+	private static long distance(long from, long to) {
+		long d = to - from;
+		return (d < 0) ? Long.MAX_VALUE : d;
+	}
+}
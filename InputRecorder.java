@@ -0,0 +1,252 @@
+package starlock;
+
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * InputRecorder writes down everything that happens to a game of Starlock (every timer tick, mouse move and click, every submit
+ * and every change of level) in a small binary log, and can play a log back later, without a window, timing every frame as it
+ * goes. Keep a few logs of real games around and replaying them makes a repeatable performance test.
+ *
+ * Replays are deterministic because the only randomness in the game (where each digit box takes its background from) comes from
+ * a seed that's saved in the log, and the game only ever changes in response to the events in the log. Submits and level changes
+ * are recorded too, not because a replay needs them, but so it can check it's still playing the same game.
+ *
+ * Turn recording on with -Dstarlock.record=path/to/log. Replay with: java starlock.InputRecorder log [frames.csv]
+ *
+ * Layout (all numbers big-endian):
+ * <pre>
+ * Header    int magic ('SLIR'), int version, long seed, short length + UTF-8 path of the level file played
+ * Events    byte type, then:
+ *           TICK    short count (that many timer ticks in a row)
+ *           MOVE    short x, short y
+ *           PRESS   short x, short y
+ *           SUBMIT  long year
+ *           LEVEL   int level (a new level has begun)
+ * </pre>
+ */
+public class InputRecorder implements Closeable {
+
+	public static final int MAGIC = 0x534C4952; // 'SLIR'
+	public static final int VERSION = 1;
+
+	static final byte TICK = 0;
+	static final byte MOVE = 1;
+	static final byte PRESS = 2;
+	static final byte SUBMIT = 3;
+	static final byte LEVEL = 4;
+
+	private final DataOutputStream out;
+	private int ticks = 0; // Ticks we haven't written yet. They're written as one run, before the next other event.
+	// The methods are synchronized only so that closing the log on the way out can't tear an event in half.
+
+	/**
+	 * Replays a log and prints how long the frames took. With a second argument, also writes every frame's timings to that file
+	 * as CSV.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: InputRecorder <log> [frames.csv]");
+			return;
+		}
+		Replay r = replay(Paths.get(args[0]));
+		System.out.println(r);
+		if (args.length > 1) {
+			try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(Paths.get(args[1])))) {
+				w.println("frame,update_ns,paint_ns");
+				for (int i = 0; i < r.frames; i++) {w.println(i + "," + r.update[i] + "," + r.paint[i]);}
+			}
+		}
+		if (r.mismatches > 0) {System.exit(1);}
+	}
+
+	/**
+	 * Starts a new log.
+	 * @param path -- where to write it.
+	 * @param seed -- the seed the game's Random was made with.
+	 * @param levels -- the level file being played, so a replay can load the same one.
+	 */
+	public InputRecorder(Path path, long seed, String levels) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(seed);
+		out.writeUTF(levels);
+	}
+
+	/** One timer tick. */
+	public synchronized void tick() throws IOException {
+		if (++ticks == 0xFFFF) {flushTicks();}
+	}
+
+	public synchronized void move(int x, int y) throws IOException {
+		flushTicks();
+		out.writeByte(MOVE);
+		out.writeShort(x);
+		out.writeShort(y);
+	}
+
+	public synchronized void press(int x, int y) throws IOException {
+		flushTicks();
+		out.writeByte(PRESS);
+		out.writeShort(x);
+		out.writeShort(y);
+	}
+
+	public synchronized void submit(long year) throws IOException {
+		flushTicks();
+		out.writeByte(SUBMIT);
+		out.writeLong(year);
+	}
+
+	public synchronized void level(int level) throws IOException {
+		flushTicks();
+		out.writeByte(LEVEL);
+		out.writeInt(level);
+	}
+
+	private void flushTicks() throws IOException {
+		if (ticks == 0) {return;}
+		out.writeByte(TICK);
+		out.writeShort(ticks);
+		ticks = 0;
+	}
+
+	/** Writes out anything still buffered and closes the log. */
+	public synchronized void close() throws IOException {
+		flushTicks();
+		out.close();
+	}
+
+	/** What a replay found: how long each frame took, and whether the game went the same way as when it was recorded. */
+	public static class Replay {
+		int frames;
+		long[] update = new long[1024]; // Nanoseconds spent in tick(), per frame.
+		long[] paint = new long[1024]; // Nanoseconds spent in render(), per frame.
+		int events;
+		int mismatches; // Submits or level changes that didn't match the log.
+
+		void add(long u, long p) {
+			if (frames == update.length) {
+				update = Arrays.copyOf(update, frames * 2);
+				paint = Arrays.copyOf(paint, frames * 2);
+			}
+			update[frames] = u;
+			paint[frames] = p;
+			frames++;
+		}
+
+		public int getFrames() {return frames;}
+		public long getUpdateNanos(int frame) {return update[frame];}
+		public long getPaintNanos(int frame) {return paint[frame];}
+		public int getMismatches() {return mismatches;}
+
+		/** Returns the given percentile (0 to 100) of the update times, in nanoseconds. */
+		public long getUpdatePercentile(double pct) {return percentile(update, pct);}
+		/** Returns the given percentile (0 to 100) of the paint times, in nanoseconds. */
+		public long getPaintPercentile(double pct) {return percentile(paint, pct);}
+
+		private long percentile(long[] times, double pct) {
+			if (frames == 0) {return 0;}
+			long[] sorted = Arrays.copyOf(times, frames);
+			Arrays.sort(sorted);
+			return sorted[(int) Math.min(frames - 1, Math.floor(pct / 100 * frames))];
+		}
+
+		public String toString() {
+			return frames + " frames, " + events + " events, " + mismatches + " mismatches\n"
+				+ String.format("update us: p50 %.1f, p95 %.1f, p99 %.1f, max %.1f%n", percentile(update, 50) / 1e3, percentile(update, 95) / 1e3, percentile(update, 99) / 1e3, percentile(update, 100) / 1e3)
+				+ String.format("paint us:  p50 %.1f, p95 %.1f, p99 %.1f, max %.1f", percentile(paint, 50) / 1e3, percentile(paint, 95) / 1e3, percentile(paint, 99) / 1e3, percentile(paint, 100) / 1e3);
+		}
+	}
+
+	/** Replays a log with the level file named in it. */
+	public static Replay replay(Path log) throws IOException {
+		String levels;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+			readHeader(in);
+			levels = in.readUTF();
+		}
+		Path path = Paths.get(levels);
+		return replay(log, LevelPack.isPack(path) ? LevelPack.open(path) : LevelIndex.open(path));
+	}
+
+	/**
+	 * Replays a log against the given levels, headless and off-screen. Every tick is one frame: the game's tick() and then its
+	 * render() into an image, each timed.
+	 */
+	public static Replay replay(Path log, List<Starlock> levels) throws IOException {
+		Replay r = new Replay();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+			long seed = readHeader(in);
+			in.readUTF();
+			StarlockGUI gui = new StarlockGUI(levels, new Random(seed));
+			BufferedImage screen = new BufferedImage(gui.getWidth(), gui.getHeight(), BufferedImage.TYPE_INT_RGB);
+			while (true) {
+				int type = in.read();
+				if (type < 0) {break;}
+				r.events++;
+				switch (type) {
+				case TICK:
+					int count = in.readUnsignedShort();
+					for (int i = 0; i < count; i++) {
+						long start = System.nanoTime();
+						gui.tick();
+						long mid = System.nanoTime();
+						Graphics2D g = screen.createGraphics();
+						gui.render(g);
+						g.dispose();
+						r.add(mid - start, System.nanoTime() - mid);
+					}
+					break;
+				case MOVE:
+					gui.mouseMoved(mouse(gui, MouseEvent.MOUSE_MOVED, in.readShort(), in.readShort()));
+					break;
+				case PRESS:
+					gui.mousePressed(mouse(gui, MouseEvent.MOUSE_PRESSED, in.readShort(), in.readShort()));
+					break;
+				case SUBMIT:
+					// The press that caused this has just been replayed, so the game should have got to the same year.
+					if (gui.getYear() != in.readLong()) {r.mismatches++;}
+					break;
+				case LEVEL:
+					if (gui.getLevel() != in.readInt()) {r.mismatches++;}
+					break;
+				default:
+					throw new IOException("Unknown event " + type + " in " + log);
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException("Log ends part way through an event: " + log);
+		}
+		return r;
+	}
+
+	/** Checks the header and returns the seed. */
+	private static long readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {throw new IOException("Not an input log");}
+		int version = in.readInt();
+		if (version != VERSION) {throw new IOException("Unsupported input log version: " + version);}
+		return in.readLong();
+	}
+
+	private static MouseEvent mouse(StarlockGUI gui, int id, int x, int y) {
+		boolean press = id == MouseEvent.MOUSE_PRESSED;
+		return new MouseEvent(gui, id, 0, 0, x, y, press ? 1 : 0, false, press ? MouseEvent.BUTTON1 : MouseEvent.NOBUTTON);
+	}
+}
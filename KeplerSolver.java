@@ -0,0 +1,187 @@
+package starlock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * KeplerSolver solves Kepler's equation, M = E - e sin E, for the eccentric anomaly E given the mean anomaly M and the
+ * eccentricity e. That's the one hard step in finding where a body on an elliptical orbit is at a given time.
+ *
+ * There's no closed form, so it's Newton's method, but done carefully so it's fast: the starting guess comes from a table of
+ * E against M for that eccentricity (built once, and shared), which is already close enough that one or two Newton steps usually
+ * finish the job. Tables are shared between eccentricities less than TABLE_STEP apart (the guess doesn't need to be exact, Newton's
+ * method always uses the real eccentricity), and only the MAX_TABLES most recently used are kept, so levels full of made-up
+ * eccentricities can't fill up memory. Without a table, a good analytic guess gets there in a few more.
+ *
+ * Near periapsis at high eccentricity (e = 0.999 and up) Newton's method can overshoot badly and take many steps, so it runs
+ * inside a bracket: E - M = e sin E, so E is always within e of M, and any step that lands outside what's left of that range is
+ * swapped for halving it. That always gets to TOLERANCE, in at most MAX_ITERATIONS steps, so a sweep over millions of years never
+ * stalls on a bad case.
+ */
+public class KeplerSolver {
+
+	private static final double TWO_PI = 2 * Math.PI;
+	private static final int MAX_ITERATIONS = 64; // Plenty: halving a range of 2e gets below TOLERANCE in under 45 steps.
+	private static final double TOLERANCE = 1e-12;
+	private static final int TABLE_SIZE = 512; // Entries over [0, pi]; the other half is the mirror image.
+	private static final double TABLE_STEP = 1e-4; // Eccentricities are rounded to this for picking a table.
+	private static final int MAX_TABLES = 256; // Tables kept for reuse. Solvers already made hang on to theirs regardless.
+
+	// Tables by rounded eccentricity, least recently used first, shared by every body (and thread) that uses them. Guarded by itself.
+	private static final LinkedHashMap<Integer, double[]> tables = new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {return size() > MAX_TABLES;}
+	};
+
+	private final double e;
+	private final double[] table; // E at M = i * pi / TABLE_SIZE, for i = 0..TABLE_SIZE, for an eccentricity close to e.
+
+	/**
+	 * A quick test of the KeplerSolver class. Checks both ways of solving against plain bisection over a range of eccentricities,
+	 * right up to 0.9999, as true anomalies in minutes of arc (the game's resolution is one), and times them.
+	 */
+	public static void main(String[] args) {
+		double[] es = new double[86];
+		for (int j = 0; j < 81; j++) {es[j] = j * 0.0123457;} // Off the table grid, to check sharing tables is fine.
+		es[81] = 0.99; es[82] = 0.995; es[83] = 0.999; es[84] = 0.9995; es[85] = 0.9999;
+		double worst = 0, worstE = 0;
+		for (double e : es) {
+			KeplerSolver k = forEccentricity(e);
+			for (int i = -4000; i <= 4000; i++) {
+				// Packed in tight around periapsis, where it's hardest.
+				double m = Math.signum(i) * Math.PI * Math.pow(Math.abs(i) / 4000.0, 3);
+				double exact = trueAnomaly(bisect(m, e), e);
+				double error = Math.max(Math.abs(trueAnomaly(solve(m, e), e) - exact), Math.abs(trueAnomaly(k.solve(m), e) - exact));
+				if (error > worst) {worst = error; worstE = e;}
+			}
+		}
+		System.out.println("Worst true anomaly error: " + worst * 10800 / Math.PI + " minutes of arc, at e = " + worstE);
+
+		int n = 1000000;
+		double[] m = new double[n];
+		double[] out = new double[n];
+		for (int i = 0; i < n; i++) {m[i] = (i * 0.618034) % TWO_PI;}
+		KeplerSolver k = forEccentricity(0.3);
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			k.solve(m, out, n);
+			long mid = System.nanoTime();
+			for (int i = 0; i < n; i++) {out[i] = solve(m[i], 0.3);}
+			long end = System.nanoTime();
+			System.out.println("Table: " + (mid - start) / n + " ns each, analytic: " + (end - mid) / n + " ns each");
+		}
+	}
+
+	/** Returns a tabled solver for the given eccentricity, sharing a table made for a nearby one if there is one. */
+	public static KeplerSolver forEccentricity(double e) {
+		checkEccentricity(e);
+		// Rounded, but never up to 1, which isn't an ellipse.
+		int key = (int) Math.min(Math.round(e / TABLE_STEP), Math.round(1 / TABLE_STEP) - 1);
+		double[] table;
+		synchronized (tables) {
+			table = tables.get(key);
+			if (table == null) {
+				table = new double[TABLE_SIZE + 1];
+				for (int i = 0; i <= TABLE_SIZE; i++) {table[i] = solve(i * Math.PI / TABLE_SIZE, key * TABLE_STEP);}
+				tables.put(key, table);
+			}
+		}
+		return new KeplerSolver(e, table);
+	}
+
+	private KeplerSolver(double e, double[] table) {
+		this.e = e;
+		this.table = table;
+	}
+
+	static void checkEccentricity(double e) {
+		if (!(e >= 0 && e < 1)) {throw new IllegalArgumentException("Eccentricity must be in [0, 1): " + e);}
+	}
+
+	public double getEccentricity() {return e;}
+
+	/**
+	 * Solves Kepler's equation using the table for a starting guess. M may be any angle; the result is in the same half turn, i.e.
+	 * M in [-pi, pi) gives E in [-pi, pi).
+	 */
+	public double solve(double m) {
+		if (e == 0) {return m;}
+		double base = 0;
+		if (m < -Math.PI || m >= Math.PI) {
+			base = TWO_PI * Math.floor((m + Math.PI) / TWO_PI);
+			m -= base;
+		}
+		// The table covers [0, pi]; E is an odd function of M.
+		boolean negative = m < 0;
+		double x = negative ? -m : m;
+		double pos = x * (TABLE_SIZE / Math.PI);
+		int i = Math.min((int) pos, TABLE_SIZE - 1);
+		double guess = table[i] + (pos - i) * (table[i + 1] - table[i]);
+		double E = newton(x, e, guess);
+		return base + (negative ? -E : E);
+	}
+
+	/** Solves n equations at once: out[i] = E for m[i]. */
+	public void solve(double[] m, double[] out, int n) {
+		for (int i = 0; i < n; i++) {out[i] = solve(m[i]);}
+	}
+
+	/** Solves Kepler's equation without a table, for a one-off. Same conventions as solve(double). */
+	public static double solve(double m, double e) {
+		checkEccentricity(e);
+		if (e == 0) {return m;}
+		double base = 0;
+		if (m < -Math.PI || m >= Math.PI) {
+			base = TWO_PI * Math.floor((m + Math.PI) / TWO_PI);
+			m -= base;
+		}
+		// A starting guess that's good everywhere: close to M for small e, and pushed out towards pi for large e.
+		double s = Math.sin(m);
+		double guess = (e < 0.8) ? m + e * s * (1 + e * Math.cos(m)) : m + 0.85 * e * Math.signum(s);
+		return base + newton(m, e, guess);
+	}
+
+	/** Solves n equations at once, each with its own solver (i.e. its own eccentricity): out[i] = E for m[i]. */
+	public static void solve(KeplerSolver[] solvers, double[] m, double[] out, int n) {
+		for (int i = 0; i < n; i++) {out[i] = solvers[i].solve(m[i]);}
+	}
+
+	/**
+	 * Newton's method on f(E) = E - e sin E - M, starting from the guess, until it settles. f only ever goes up, so every step also
+	 * narrows down a range the answer must be in; a step that lands outside it is replaced by the middle of it.
+	 */
+	private static double newton(double m, double e, double E) {
+		double lo = m - e, hi = m + e;
+		if (!(E > lo && E < hi)) {E = m;}
+		for (int k = 0; k < MAX_ITERATIONS; k++) {
+			double f = E - e * Math.sin(E) - m;
+			if (f > 0) {hi = E;} else {lo = E;}
+			double next = E - f / (1 - e * Math.cos(E));
+			if (next == E) {break;} // Settled exactly, and E is one end of the range now, so don't let the check below move it.
+			if (!(next > lo && next < hi)) {next = 0.5 * (lo + hi);}
+			double step = next - E;
+			E = next;
+			if (Math.abs(step) < TOLERANCE) {break;}
+		}
+		return E;
+	}
+
+	/** Kepler's equation the slow, sure way, for checking the others. */
+	private static double bisect(double m, double e) {
+		double lo = m - e, hi = m + e;
+		for (int k = 0; k < 200 && lo < hi; k++) {
+			double mid = 0.5 * (lo + hi);
+			if (mid <= lo || mid >= hi) {break;}
+			if (mid - e * Math.sin(mid) - m > 0) {hi = mid;} else {lo = mid;}
+		}
+		return 0.5 * (lo + hi);
+	}
+
+	/**
+	 * Returns the true anomaly (the actual angle from periapsis, as seen from the star) for the eccentric anomaly E. Same half
+	 * turn as E.
+	 */
+	public static double trueAnomaly(double E, double e) {
+		return 2 * Math.atan2(Math.sqrt(1 + e) * Math.sin(E / 2), Math.sqrt(1 - e) * Math.cos(E / 2));
+	}
+}
@@ -0,0 +1,87 @@
+package starlock;
+
+/**
+ * A LevelDefinition is the unchanging part of a level: its title, conjunction, and each body's distance, period, solution, look and orbit.
+ * Unlike a Starlock it holds no current year or positions and can't be modified, so one instance can be shared by any number of
+ * threads and players, each of whom only needs to keep their own year and minutes.
+ */
+public final class LevelDefinition {
+
+	private final String title;
+	private final long conjunction;
+	private final int[] distances;
+	private final long[] periods;
+	private final int[] solutions;
+	private final String[] looks;
+	private final double[] eccentricities;
+	private final int[] periapses;
+	private final Body[] ellipses; // Private copies of the bodies on elliptical orbits, to do their sums. Null for circles.
+
+	/** Copies the definition out of a Starlock. Later changes to the Starlock aren't reflected here. */
+	public LevelDefinition(Starlock sl) {
+		title = sl.getTitle();
+		conjunction = sl.getConjunctionYear();
+		int n = sl.getNumBodies();
+		distances = new int[n];
+		periods = new long[n];
+		solutions = new int[n];
+		looks = new String[n];
+		eccentricities = new double[n];
+		periapses = new int[n];
+		ellipses = new Body[n];
+		Body[] bodies = sl.getBodies();
+		for (int i = 0; i < n; i++) {
+			distances[i] = bodies[i].getDistance();
+			periods[i] = bodies[i].getPeriod();
+			solutions[i] = bodies[i].getSolution();
+			looks[i] = bodies[i].getLook();
+			eccentricities[i] = bodies[i].getEccentricity();
+			periapses[i] = bodies[i].getPeriapsis();
+			if (!bodies[i].isCircular()) {
+				ellipses[i] = new Body(distances[i], periods[i]);
+				ellipses[i].setOrbit(eccentricities[i], periapses[i]);
+			}
+		}
+	}
+
+	/** Makes a fresh, playable Starlock from this definition, at year 0. */
+	public Starlock toStarlock() {
+		Starlock SL = new Starlock(title, conjunction);
+		for (int i = 0; i < periods.length; i++) {SL.addBody(distances[i], periods[i], solutions[i], looks[i], eccentricities[i], periapses[i]);}
+		SL.changeYear(0);
+		return SL;
+	}
+
+	/**
+	 * Works out where every body is in the given year, into out, which needs room for getNumBodies() entries. The same sums as
+	 * Starlock.changeYear, but nothing is stored here, so any number of threads can call it at once. (Body.minutesAt doesn't store
+	 * anything either, so sharing the ellipses is fine.)
+	 */
+	public void minutesAt(long year, int[] out) {
+		for (int i = 0; i < periods.length; i++) {
+			long p = periods[i];
+			// (year - conjunction) mod p, reduced separately so the subtraction can't overflow.
+			long r = Starlock.pmod(year, p) - Starlock.pmod(conjunction, p);
+			if (r < 0) {r += p;}
+			out[i] = (ellipses[i] == null) ? Starlock.scale(r, p) : ellipses[i].minutesAt(r);
+		}
+	}
+
+	/** Returns true if the given positions put every body on its solution. */
+	public boolean isSolved(int[] minutes) {
+		for (int i = 0; i < solutions.length; i++) {
+			if (minutes[i] != solutions[i]) {return false;}
+		}
+		return true;
+	}
+
+	public String getTitle() {return title;}
+	public long getConjunctionYear() {return conjunction;}
+	public int getNumBodies() {return periods.length;}
+	public int getDistance(int i) {return distances[i];}
+	public long getPeriod(int i) {return periods[i];}
+	public int getSolution(int i) {return solutions[i];}
+	public String getLook(int i) {return looks[i];}
+	public double getEccentricity(int i) {return eccentricities[i];}
+	public int getPeriapsis(int i) {return periapses[i];}
+}
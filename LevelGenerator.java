@@ -0,0 +1,245 @@
+package starlock;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * LevelGenerator makes new Starlock puzzles without a GUI. Given a number of bodies, a range of periods and the number of digits
+ * on the lock, it makes levels that have exactly one solving year the player can dial in, i.e. exactly one year in [0, 7^digits).
+ *
+ * Candidates are made by picking periods and a secret year at random, and pointing each solution circle at where its body is in
+ * that year. The solver rules out most bad candidates straight away; the ones that survive are then checked exhaustively by
+ * countSolutions, which splits the year range across all the cores.
+ */
+public class LevelGenerator {
+
+	/** Ranges shorter than this are searched in one go rather than split further. */
+	private static final long SPLIT_THRESHOLD = 1 << 14;
+
+	private final int numBodies;
+	private final long minPeriod, maxPeriod;
+	private final long range; // 7^digits: the number of years the player can enter.
+	private final long seed;
+
+	/**
+	 * Makes a batch of levels and prints them in the Levels.txt format.
+	 * Usage: LevelGenerator count bodies minPeriod maxPeriod [digits] [seed]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: LevelGenerator <count> <bodies> <minPeriod> <maxPeriod> [digits] [seed]");
+			return;
+		}
+		int count = Integer.parseInt(args[0]);
+		int bodies = Integer.parseInt(args[1]);
+		long minPeriod = Long.parseLong(args[2]);
+		long maxPeriod = Long.parseLong(args[3]);
+		int digits = (args.length > 4) ? Integer.parseInt(args[4]) : 5;
+		long seed = (args.length > 5) ? Long.parseLong(args[5]) : System.nanoTime();
+
+		LevelGenerator gen = new LevelGenerator(bodies, minPeriod, maxPeriod, digits, seed);
+		long start = System.nanoTime();
+		List<Level> levels = gen.generate(count);
+		long ms = (System.nanoTime() - start) / 1000000;
+
+		ArrayList<Starlock> out = new ArrayList<Starlock>();
+		for (Level l : levels) {out.add(l.getStarlock());}
+		Writer w = new OutputStreamWriter(System.out, "UTF-8");
+		LevelPack.writeText(out, w);
+		w.flush();
+		System.err.println("Generated " + count + " verified levels in " + ms + " ms");
+	}
+
+	/** A generated level, along with its answer and how hard we reckon it is. */
+	public static class Level {
+		private final Starlock sl;
+		private final long year;
+		private final double difficulty;
+
+		Level(Starlock sl, long year, double difficulty) {
+			this.sl = sl;
+			this.year = year;
+			this.difficulty = difficulty;
+		}
+
+		public Starlock getStarlock() {return sl;}
+		public long getYear() {return year;}
+		public double getDifficulty() {return difficulty;}
+	}
+
+	/**
+	 * @param numBodies -- how many bodies each level has.
+	 * @param minPeriod -- the shortest period a body may have, in years.
+	 * @param maxPeriod -- the longest period a body may have, in years.
+	 * @param digits -- the number of digit boxes, so that the years on offer are [0, 7^digits).
+	 * @param seed -- levels are a function of the seed and their index, so the same arguments always give the same levels.
+	 */
+	public LevelGenerator(int numBodies, long minPeriod, long maxPeriod, int digits, long seed) {
+		if (numBodies < 1) {throw new IllegalArgumentException("Need at least one body");}
+		if (minPeriod < 1 || maxPeriod < minPeriod) {throw new IllegalArgumentException("Bad period range: " + minPeriod + " to " + maxPeriod);}
+		if (digits < 1 || digits > 22) {throw new IllegalArgumentException("Bad number of digits: " + digits);}
+		this.numBodies = numBodies;
+		this.minPeriod = minPeriod;
+		this.maxPeriod = maxPeriod;
+		this.seed = seed;
+		long r = 1;
+		for (int i = 0; i < digits; i++) {r *= 7;}
+		range = r;
+	}
+
+	/** Generates count levels, in parallel. */
+	public List<Level> generate(int count) {
+		return IntStream.range(0, count).parallel().mapToObj(i -> generateLevel(i)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Generates the level with the given index. Keeps trying candidates until one has a unique answer, so a hopeless set of
+	 * constraints (e.g. one body with a period of 2) will never return.
+	 */
+	public Level generateLevel(int index) {
+		SplittableRandom rnd = new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (index + 1)));
+		while (true) {
+			Starlock SL = new Starlock("Generated " + (index + 1), rnd.nextLong(range));
+			long year = 1 + rnd.nextLong(range - 1); // Never 0; the level starts there, and shouldn't start solved.
+			for (int i = 0; i < numBodies; i++) {
+				long period = minPeriod + rnd.nextLong(maxPeriod - minPeriod + 1);
+				int distance = (numBodies == 1) ? 175 : 50 + i * 250 / (numBodies - 1);
+				int solution = Starlock.minutesAt(year - SL.getConjunctionYear(), period);
+				SL.addBody(distance, period, solution, String.format("#%06X", rnd.nextInt(0x1000000)));
+			}
+
+			// Cheap arithmetic check first: most candidates with more than one answer are caught here.
+			try {
+				if (StarlockSolver.solve(SL).yearsInRange(0, range).length != 1) {continue;}
+			} catch (ArithmeticException e) {
+				// Too big for the solver to enumerate. The exhaustive count below will decide.
+			}
+			// And the exhaustive check, which is the one that counts.
+			if (countSolutions(SL, 0, range) != 1) {continue;}
+
+			SL.changeYear(0);
+			return new Level(SL, year, difficulty(SL, year));
+		}
+	}
+
+	/**
+	 * A rough difficulty score. The bits of information in the periods (capped at the bits needed to pick one year out of the
+	 * range, since you can't need more than that), plus one for every non-zero digit the player has to dial.
+	 */
+	public double difficulty(Starlock sl, long year) {
+		double bits = 0;
+		Body[] bodies = sl.getBodies();
+		for (int i = 0; i < sl.getNumBodies(); i++) {
+			bits += Math.log(bodies[i].getPeriod()) / Math.log(2);
+		}
+		bits = Math.min(bits, Math.log(range) / Math.log(2));
+		int digits = 0;
+		for (long y = year; y > 0; y /= 7) {
+			if (y % 7 != 0) {digits++;}
+		}
+		return Math.round((bits + digits) * 10) / 10.0;
+	}
+
+	/**
+	 * Counts the years in [from, to) at which the given puzzle is solved, by checking them all. The range is split across the
+	 * common fork-join pool, and within each piece we only visit the years at which the most selective body is in place.
+	 */
+	public static long countSolutions(Starlock sl, long from, long to) {
+		return ForkJoinPool.commonPool().invoke(new SolutionCount(new Puzzle(sl), from, to));
+	}
+
+	/** The bits of a Starlock that the search needs, in flat arrays, with the most selective body first. */
+	private static class Puzzle {
+		final int n;
+		final Body[] bodies; // For their orbits. Circles or ellipses, it's all the same here.
+		final long[] periods;
+		final int[] solutions;
+		final long conjunction;
+		final long lo, hi; // The run of residues at which the first body is solved.
+
+		Puzzle(Starlock sl) {
+			n = sl.getNumBodies();
+			periods = new long[n];
+			solutions = new int[n];
+			conjunction = sl.getConjunctionYear();
+			bodies = sl.getBodies();
+			int best = 0;
+			double bestFraction = 2;
+			for (int i = 0; i < n; i++) {
+				periods[i] = bodies[i].getPeriod();
+				solutions[i] = bodies[i].getSolution();
+				// The fraction of years at which this body is in place. The smaller, the fewer years we need to look at.
+				long run = bodies[i].firstResidue(solutions[i] + 1) - bodies[i].firstResidue(solutions[i]);
+				double fraction = (double) run / periods[i];
+				if (fraction < bestFraction) {
+					bestFraction = fraction;
+					best = i;
+				}
+			}
+			if (n > 0) {
+				// Swap the most selective body to the front.
+				long p = periods[0]; periods[0] = periods[best]; periods[best] = p;
+				int s = solutions[0]; solutions[0] = solutions[best]; solutions[best] = s;
+				Body b = bodies[0]; bodies[0] = bodies[best]; bodies[best] = b;
+				lo = bodies[0].firstResidue(solutions[0]);
+				hi = bodies[0].firstResidue(solutions[0] + 1);
+			} else {
+				lo = 0;
+				hi = 1;
+			}
+		}
+
+		/** True if every body but the first is in place in the given year. */
+		boolean othersSolved(long year) {
+			long delta = year - conjunction;
+			for (int i = 1; i < n; i++) {
+				if (bodies[i].minutesAt(Starlock.pmod(delta, periods[i])) != solutions[i]) {return false;}
+			}
+			return true;
+		}
+	}
+
+	private static class SolutionCount extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private final Puzzle pz;
+		private final long from, to;
+
+		SolutionCount(Puzzle pz, long from, long to) {
+			this.pz = pz;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected Long compute() {
+			if (to - from > SPLIT_THRESHOLD) {
+				long mid = from + (to - from) / 2;
+				SolutionCount left = new SolutionCount(pz, from, mid);
+				left.fork();
+				long right = new SolutionCount(pz, mid, to).compute();
+				return right + left.join();
+			}
+
+			if (pz.n == 0) {return to - from;} // An empty system is always solved.
+			long count = 0;
+			long p = pz.periods[0];
+			// The first body is only in place when year - conjunction = r (mod p) for r in [lo, hi). Jump straight to those years.
+			long r0 = Starlock.pmod(from - pz.conjunction, p);
+			for (long r = pz.lo; r < pz.hi; r++) {
+				long year = from + Starlock.pmod(r - r0, p);
+				for (; year < to; year += p) {
+					if (pz.othersSolved(year)) {count++;}
+					if (year > Long.MAX_VALUE - p) {break;}
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package starlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * LevelIndex is a list of the levels in a level file (the Levels.txt format), which only reads a level when somebody asks for it.
+ *
+ * Opening the file maps it into memory and makes one quick pass to note where each LEVEL block starts. After that, get(i) parses
+ * just that block, the first time it's needed, and hangs on to the result. parseAll() parses every block at once, in parallel,
+ * for tools that want the whole lot.
+ *
+ * Lines that can't be understood are reported along with their line number and skipped, rather than bringing down the game.
+ *
+ * When the file changes, update() makes a new index of the new contents that keeps the already parsed levels whose blocks are byte
+ * for byte the same, so only the blocks that were really edited get parsed again. See LevelWatcher.
+ */
+public class LevelIndex extends AbstractList<Starlock> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String name; // What to call the file in error messages.
+	private final ByteBuffer data; // The whole file.
+	private final int[] offsets; // Byte offset of each LEVEL line. One extra entry at the end marks the end of the file.
+	private final int[] lines; // Line number (from 1) of each LEVEL line.
+	private final AtomicReferenceArray<Starlock> levels; // Levels we've parsed so far. Null until then.
+
+	/**
+	 * A quick test of the LevelIndex class. Indexes a level file (resources/Levels.txt by default) and prints every level in it.
+	 */
+	public static void main(String[] args) throws IOException {
+		LevelIndex index = open(java.nio.file.Paths.get(args.length > 0 ? args[0] : "resources/Levels.txt"));
+		System.out.println(index.size() + " levels");
+		index.parseAll();
+		for (int i = 0; i < index.size(); i++) {
+			System.out.println("LEVEL " + index.get(i).getTitle() + ", " + index.get(i).getNumBodies() + " bodies");
+		}
+	}
+
+	/** Maps and indexes the given level file. Nothing is parsed yet. */
+	public static LevelIndex open(Path path) throws IOException {
+		StarlockEvents.LevelLoad event = new StarlockEvents.LevelLoad();
+		event.begin();
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (fc.size() > Integer.MAX_VALUE) {throw new IOException("Level file is too large to map: " + path);}
+			MappedByteBuffer mb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			LevelIndex index = new LevelIndex(path.toString(), mb);
+			if (event.shouldCommit()) {
+				event.source = index.name;
+				event.level = -1;
+				event.levels = index.size();
+				event.commit();
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Reads the given level file into memory and indexes it. Use this instead of open() for a file that might be rewritten while
+	 * we're using it (e.g. by LevelWatcher), since a mapped file that's cut short underneath us can bring down the JVM.
+	 */
+	public static LevelIndex read(Path path) throws IOException {
+		StarlockEvents.LevelLoad event = new StarlockEvents.LevelLoad();
+		event.begin();
+		LevelIndex index = new LevelIndex(path.toString(), ByteBuffer.wrap(Files.readAllBytes(path)));
+		if (event.shouldCommit()) {
+			event.source = index.name;
+			event.level = -1;
+			event.levels = index.size();
+			event.commit();
+		}
+		return index;
+	}
+
+	/** Indexes level data that's already in memory, e.g. a file that has just been read. */
+	public LevelIndex(String name, ByteBuffer data) {
+		this.name = name;
+		this.data = data;
+
+		// One pass over the bytes, noting where each LEVEL line starts.
+		int[] o = new int[64];
+		int[] l = new int[64];
+		int n = 0;
+		int line = 1;
+		int limit = data.limit();
+		int pos = 0;
+		while (pos < limit) {
+			if (startsWith(data, pos, limit, "LEVEL")) {
+				if (n == o.length) {
+					o = Arrays.copyOf(o, n * 2);
+					l = Arrays.copyOf(l, n * 2);
+				}
+				o[n] = pos;
+				l[n] = line;
+				n++;
+			}
+			// Skip to the start of the next line.
+			while (pos < limit && data.get(pos) != '\n') {pos++;}
+			pos++;
+			line++;
+		}
+		offsets = Arrays.copyOf(o, n + 1);
+		offsets[n] = limit;
+		lines = Arrays.copyOf(l, n);
+		levels = new AtomicReferenceArray<Starlock>(n);
+	}
+
+	/** Returns the number of levels in the file. */
+	public int size() {
+		return lines.length;
+	}
+
+	/** Returns level i, parsing it first if nobody has asked for it before. */
+	public Starlock get(int i) {
+		Starlock sl = levels.get(i);
+		if (sl == null) {
+			// Two threads might race to parse the same level. That's harmless; the first one in wins, and everyone gets that one.
+			levels.compareAndSet(i, null, parse(i));
+			sl = levels.get(i);
+		}
+		return sl;
+	}
+
+	/** Returns true if level i has already been parsed. */
+	public boolean isParsed(int i) {
+		return levels.get(i) != null;
+	}
+
+	/** Parses every level that hasn't been parsed yet, spread across all the cores. */
+	public void parseAll() {
+		IntStream.range(0, size()).parallel().forEach(i -> get(i));
+	}
+
+	/**
+	 * Indexes new contents for the same file. Levels whose blocks haven't changed (wherever they've moved to) are carried over
+	 * from this index, same Starlock and all, so anyone playing one doesn't notice. The rest are parsed straight away, so that any
+	 * mistakes in them are reported now, while the author is looking. Their positions in the new index are set in changed.
+	 */
+	public LevelIndex update(ByteBuffer newData, BitSet changed) {
+		LevelIndex next = new LevelIndex(name, newData);
+		// Our blocks, by their bytes. A ByteBuffer's equals and hashCode go by its contents.
+		HashMap<ByteBuffer, Integer> old = new HashMap<ByteBuffer, Integer>();
+		for (int i = 0; i < size(); i++) {old.put(block(i), i);}
+		for (int i = 0; i < next.size(); i++) {
+			Integer j = old.remove(next.block(i)); // Removed, so two identical blocks don't end up sharing one Starlock.
+			if (j != null) {
+				next.levels.set(i, levels.get(j)); // Still null if nobody had asked for it, and that's fine.
+			} else {
+				next.get(i);
+				changed.set(i);
+			}
+		}
+		return next;
+	}
+
+	/** The whole file, as a view of the data. */
+	ByteBuffer contents() {
+		ByteBuffer b = data.duplicate();
+		b.position(0);
+		return b;
+	}
+
+	/** Level i's block as a view of the data. */
+	private ByteBuffer block(int i) {
+		ByteBuffer b = data.duplicate();
+		b.limit(offsets[i + 1]).position(offsets[i]);
+		return b.slice();
+	}
+
+	/** Returns the raw bytes of level i's block, from its LEVEL line up to the next one. */
+	public byte[] getBlock(int i) {
+		byte[] b = new byte[offsets[i + 1] - offsets[i]];
+		for (int k = 0; k < b.length; k++) {b[k] = data.get(offsets[i] + k);}
+		return b;
+	}
+
+	/** Returns the line number that level i starts on. */
+	public int getLine(int i) {
+		return lines[i];
+	}
+
+	/** Parses one LEVEL block into a Starlock. */
+	private Starlock parse(int i) {
+		StarlockEvents.LevelLoad event = new StarlockEvents.LevelLoad();
+		event.begin();
+		Starlock SL = new Starlock();
+		int end = offsets[i + 1];
+		int line = lines[i];
+		int pos = offsets[i];
+		while (pos < end) {
+			// Find the end of this line, ignoring any carriage return.
+			int eol = pos;
+			while (eol < end && data.get(eol) != '\n') {eol++;}
+			int last = eol;
+			if (last > pos && data.get(last - 1) == '\r') {last--;}
+
+			try {
+				if (startsWith(data, pos, last, "LEVEL")) {
+					SL.setTitle(decode(pos + 6, last));
+				} else if (startsWith(data, pos, last, "CONJUNCTION")) {
+					SL.setConjunctionYear(parseLong(pos + 11, last));
+				} else if (startsWith(data, pos, last, "BODY")) {
+					// BODY distance, period, solution, look[, eccentricity, periapsis]
+					int[] commas = new int[5];
+					int c = 0;
+					for (int k = pos + 4; k < last && c < 5; k++) {
+						if (data.get(k) == ',') {commas[c++] = k;}
+					}
+					if (c < 3) {throw new NumberFormatException("expected BODY distance, period, solution, look");}
+					if (c == 4) {throw new NumberFormatException("an elliptical orbit needs both eccentricity and periapsis");}
+					int distance = parseInt(pos + 4, commas[0]);
+					long period = parseLong(commas[0] + 1, commas[1]);
+					int solution = parseInt(commas[1] + 1, commas[2]);
+					String look = decode(commas[2] + 1, (c == 5) ? commas[3] : last).trim();
+					if (period <= 0) {throw new NumberFormatException("period must be positive");}
+					if (look.isEmpty()) {throw new NumberFormatException("missing look");}
+					if (c == 5) {
+						double e = Double.parseDouble(decode(commas[3] + 1, commas[4]).trim());
+						int periapsis = parseInt(commas[4] + 1, last);
+						if (!(e >= 0 && e < 1)) {throw new NumberFormatException("eccentricity must be at least 0 and less than 1");}
+						SL.addBody(distance, period, solution, look, e, periapsis);
+					} else {
+						SL.addBody(distance, period, solution, look);
+					}
+				} else {
+					// Do nothing. Blank lines and anything else are ignored, just like they always were.
+				}
+			} catch (NumberFormatException e) {
+				System.out.println(name + ":" + line + ": " + e.getMessage() + ": " + decode(pos, last));
+			}
+
+			pos = eol + 1;
+			line++;
+		}
+		if (event.shouldCommit()) {
+			event.source = name;
+			event.level = i;
+			event.levels = 1;
+			event.bodies = SL.getNumBodies();
+			event.commit();
+		}
+		return SL;
+	}
+
+	/** Parses a whole number from the bytes in [from, to), ignoring spaces around it. */
+	private long parseLong(int from, int to) {
+		while (from < to && isSpace(data.get(from))) {from++;}
+		while (to > from && isSpace(data.get(to - 1))) {to--;}
+		if (from == to) {throw new NumberFormatException("missing number");}
+		boolean negative = data.get(from) == '-';
+		if (negative || data.get(from) == '+') {from++;}
+		if (from == to) {throw new NumberFormatException("missing number");}
+		long value = 0;
+		for (int k = from; k < to; k++) {
+			int d = data.get(k) - '0';
+			if (d < 0 || d > 9) {throw new NumberFormatException("not a number");}
+			// Accumulate negatively so that Long.MIN_VALUE still parses.
+			if (value < (Long.MIN_VALUE + d) / 10) {throw new NumberFormatException("number too large");}
+			value = value * 10 - d;
+		}
+		if (!negative && value == Long.MIN_VALUE) {throw new NumberFormatException("number too large");}
+		return negative ? value : -value;
+	}
+
+	/** As parseLong, but the number has to fit in an int too, rather than quietly wrapping around. */
+	private int parseInt(int from, int to) {
+		long value = parseLong(from, to);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {throw new NumberFormatException("number too large");}
+		return (int) value;
+	}
+
+	/** Decodes the bytes in [from, to) as UTF-8. */
+	private String decode(int from, int to) {
+		if (from >= to) {return "";}
+		byte[] b = new byte[to - from];
+		for (int k = 0; k < b.length; k++) {b[k] = data.get(from + k);}
+		return new String(b, UTF8);
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	/** Returns true if the bytes starting at pos (and before limit) begin with the given ASCII prefix. */
+	private static boolean startsWith(ByteBuffer data, int pos, int limit, String prefix) {
+		if (limit - pos < prefix.length()) {return false;}
+		for (int k = 0; k < prefix.length(); k++) {
+			if (data.get(pos + k) != prefix.charAt(k)) {return false;}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,244 @@
+package starlock;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * LevelPack is a compact binary version of the Levels.txt format. A pack is memory-mapped and read in place, and any level can be
+ * reached directly through the offset table without looking at the ones before it.
+ *
+ * Layout (all numbers big-endian):
+ * <pre>
+ * Header     int magic ('SLPK'), int version, int levelCount, int lookCount, long looksOffset
+ * Offsets    long[levelCount + 1]: where each level record starts; the last entry is where the records end
+ * Levels     for each level: long conjunction, int bodyCount, int titleLength,
+ *            then bodyCount fixed-width body records
+ *            (int distance, long period, int solution, int lookId, double eccentricity, int periapsis),
+ *            then the title in UTF-8, padded with zeros to a multiple of 8 bytes
+ * Looks      for each look: short length, then the look string in UTF-8
+ * </pre>
+ * Looks are interned: each distinct look string is stored once and bodies refer to it by its position in the look table.
+ *
+ * Version 1 packs had no eccentricity or periapsis (every orbit was a circle), so their body records are 20 bytes. They can still be
+ * read; packs are always written as version 2.
+ */
+public class LevelPack extends AbstractList<Starlock> {
+
+	public static final int MAGIC = 0x534C504B; // 'SLPK'
+	public static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 24;
+	private static final int LEVEL_HEADER_SIZE = 16;
+	private static final int BODY_SIZE = 32;
+	private static final int BODY_SIZE_V1 = 20;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer data;
+	private final int levelCount;
+	private final int bodySize; // BODY_SIZE, or BODY_SIZE_V1 for an old pack.
+	private final String[] looks; // The look table, read once when the pack is opened.
+	private final AtomicReferenceArray<Starlock> levels; // Levels we've built so far. Null until then.
+
+	/**
+	 * Converts between the two formats. The direction is worked out from the input file:
+	 * java starlock.LevelPack resources/Levels.txt resources/Levels.slp (text to pack), or the other way around.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: LevelPack <input> <output>");
+			return;
+		}
+		Path in = Paths.get(args[0]);
+		Path out = Paths.get(args[1]);
+		if (isPack(in)) {
+			LevelPack pack = open(in);
+			try (Writer w = Files.newBufferedWriter(out, UTF8)) {
+				writeText(pack, w);
+			}
+			System.out.println("Wrote " + pack.size() + " levels as text to " + out);
+		} else {
+			LevelIndex index = LevelIndex.open(in);
+			write(index, out);
+			System.out.println("Packed " + index.size() + " levels into " + out);
+		}
+	}
+
+	/** Returns true if the given file starts with the pack magic number. */
+	public static boolean isPack(Path path) throws IOException {
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer b = ByteBuffer.allocate(4);
+			while (b.hasRemaining() && fc.read(b) >= 0) {}
+			return !b.hasRemaining() && b.getInt(0) == MAGIC;
+		}
+	}
+
+	/** Maps the given pack file and reads its header and look table. */
+	public static LevelPack open(Path path) throws IOException {
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (fc.size() > Integer.MAX_VALUE) {throw new IOException("Level pack is too large to map: " + path);}
+			MappedByteBuffer mb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			return new LevelPack(mb);
+		}
+	}
+
+	/** Reads a pack that's already in memory. */
+	public LevelPack(ByteBuffer data) throws IOException {
+		this.data = data;
+		if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {throw new IOException("Not a level pack");}
+		int version = data.getInt(4);
+		if (version != VERSION && version != 1) {throw new IOException("Unsupported level pack version: " + version);}
+		bodySize = (version == 1) ? BODY_SIZE_V1 : BODY_SIZE;
+		levelCount = data.getInt(8);
+		int lookCount = data.getInt(12);
+		long looksOffset = data.getLong(16);
+		if (levelCount < 0 || lookCount < 0 || looksOffset > data.limit()) {throw new IOException("Corrupt level pack header");}
+
+		looks = new String[lookCount];
+		int pos = (int) looksOffset;
+		for (int i = 0; i < lookCount; i++) {
+			int len = data.getShort(pos) & 0xFFFF;
+			looks[i] = decode(pos + 2, len); // Already unique; each look is stored once in the pack.
+			pos += 2 + len;
+		}
+		levels = new AtomicReferenceArray<Starlock>(levelCount);
+	}
+
+	/** Returns the number of levels in the pack. */
+	public int size() {
+		return levelCount;
+	}
+
+	/** Returns level n, straight from its record. Each level is only built once. */
+	public Starlock get(int n) {
+		if (n < 0 || n >= levelCount) {throw new IndexOutOfBoundsException("Level " + n + " of " + levelCount);}
+		Starlock sl = levels.get(n);
+		if (sl == null) {
+			levels.compareAndSet(n, null, read(n));
+			sl = levels.get(n);
+		}
+		return sl;
+	}
+
+	/** Builds a Starlock from level n's record. */
+	private Starlock read(int n) {
+		StarlockEvents.LevelLoad event = new StarlockEvents.LevelLoad();
+		event.begin();
+		int pos = (int) data.getLong(HEADER_SIZE + 8 * n);
+		long conjunction = data.getLong(pos);
+		int bodyCount = data.getInt(pos + 8);
+		int titleLength = data.getInt(pos + 12);
+		int body = pos + LEVEL_HEADER_SIZE;
+		Starlock SL = new Starlock(decode(body + bodyCount * bodySize, titleLength), conjunction);
+		for (int i = 0; i < bodyCount; i++, body += bodySize) {
+			SL.addBody(data.getInt(body), data.getLong(body + 4), data.getInt(body + 12), looks[data.getInt(body + 16)]);
+			if (bodySize == BODY_SIZE) {SL.getBody(i).setOrbit(data.getDouble(body + 20), data.getInt(body + 28));}
+		}
+		if (event.shouldCommit()) {
+			event.source = "level pack";
+			event.level = n;
+			event.levels = 1;
+			event.bodies = bodyCount;
+			event.commit();
+		}
+		return SL;
+	}
+
+	private String decode(int pos, int len) {
+		byte[] b = new byte[len];
+		for (int k = 0; k < len; k++) {b[k] = data.get(pos + k);}
+		return new String(b, UTF8);
+	}
+
+	/** Writes the given levels out as a pack. */
+	public static void write(List<Starlock> levels, Path out) throws IOException {
+		int n = levels.size();
+
+		// Intern the looks and encode the titles, and work out where everything goes.
+		HashMap<String, Integer> lookIds = new HashMap<String, Integer>();
+		ArrayList<byte[]> lookBytes = new ArrayList<byte[]>();
+		byte[][] titles = new byte[n][];
+		long[] offsets = new long[n + 1];
+		long pos = HEADER_SIZE + 8L * (n + 1);
+		for (int i = 0; i < n; i++) {
+			Starlock sl = levels.get(i);
+			titles[i] = sl.getTitle().getBytes(UTF8);
+			Body[] bodies = sl.getBodies();
+			for (int j = 0; j < sl.getNumBodies(); j++) {
+				String look = bodies[j].getLook();
+				if (!lookIds.containsKey(look)) {
+					byte[] b = look.getBytes(UTF8);
+					if (b.length > 0xFFFF) {throw new IOException("Look is too long: " + look);}
+					lookIds.put(look, lookBytes.size());
+					lookBytes.add(b);
+				}
+			}
+			offsets[i] = pos;
+			pos += LEVEL_HEADER_SIZE + (long) BODY_SIZE * sl.getNumBodies() + pad(titles[i].length);
+		}
+		offsets[n] = pos;
+		long looksOffset = pos;
+		for (byte[] b : lookBytes) {pos += 2 + b.length;}
+		if (pos > Integer.MAX_VALUE) {throw new IOException("Too many levels for one pack");}
+
+		ByteBuffer buf = ByteBuffer.allocate((int) pos);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(lookBytes.size()).putLong(looksOffset);
+		for (int i = 0; i <= n; i++) {buf.putLong(offsets[i]);}
+		for (int i = 0; i < n; i++) {
+			Starlock sl = levels.get(i);
+			buf.putLong(sl.getConjunctionYear()).putInt(sl.getNumBodies()).putInt(titles[i].length);
+			Body[] bodies = sl.getBodies();
+			for (int j = 0; j < sl.getNumBodies(); j++) {
+				buf.putInt(bodies[j].getDistance()).putLong(bodies[j].getPeriod()).putInt(bodies[j].getSolution()).putInt(lookIds.get(bodies[j].getLook()));
+				buf.putDouble(bodies[j].getEccentricity()).putInt(bodies[j].getPeriapsis());
+			}
+			buf.put(titles[i]);
+			buf.position(buf.position() + pad(titles[i].length) - titles[i].length); // The buffer starts out zeroed.
+		}
+		for (byte[] b : lookBytes) {buf.putShort((short) b.length).put(b);}
+		buf.flip();
+
+		try (FileChannel fc = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buf.hasRemaining()) {fc.write(buf);}
+		}
+	}
+
+	/** Writes the given levels out in the Levels.txt format. */
+	public static void writeText(List<Starlock> levels, Appendable out) throws IOException {
+		for (int i = 0; i < levels.size(); i++) {
+			Starlock sl = levels.get(i);
+			out.append("LEVEL ").append(sl.getTitle()).append('\n');
+			out.append("CONJUNCTION ").append(Long.toString(sl.getConjunctionYear())).append('\n');
+			Body[] bodies = sl.getBodies();
+			for (int j = 0; j < sl.getNumBodies(); j++) {
+				out.append("BODY ").append(Integer.toString(bodies[j].getDistance()));
+				out.append(", ").append(Long.toString(bodies[j].getPeriod()));
+				out.append(", ").append(Integer.toString(bodies[j].getSolution()));
+				out.append(", ").append(bodies[j].getLook());
+				if (!bodies[j].isCircular()) {
+					out.append(", ").append(Double.toString(bodies[j].getEccentricity()));
+					out.append(", ").append(Integer.toString(bodies[j].getPeriapsis()));
+				}
+				out.append('\n');
+			}
+			out.append('\n');
+		}
+	}
+
+	/** Rounds a title length up to a multiple of 8, so that the next record starts aligned. */
+	private static int pad(int length) {
+		return (length + 7) & ~7;
+	}
+}
@@ -0,0 +1,145 @@
+package starlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.BitSet;
+
+/**
+ * LevelWatcher keeps an eye on a level file while you're writing levels, and hands over a fresh LevelIndex every time the file is
+ * saved, so there's no need to restart the game to see an edit.
+ *
+ * Only the LEVEL blocks whose bytes actually changed are parsed again (see LevelIndex.update); the rest keep the Starlocks they
+ * already had, years and all. The listener is told which levels are new, and can decide whether the level being played needs
+ * rebuilding.
+ *
+ * Editors save in all sorts of ways (write in place, write a copy and rename it, several writes in a row), so after the first sign
+ * of a change we wait a moment for things to settle before reading the file.
+ */
+public class LevelWatcher implements Runnable {
+
+	/**
+	 * Called on the watcher's thread with the new levels, and which of them are different. Throwing a RuntimeException turns the
+	 * new version down: it's reported, the old one is kept, and watching carries on.
+	 */
+	public interface Listener {
+		public void reloaded(LevelIndex levels, BitSet changed);
+	}
+
+	private static final long SETTLE_MILLIS = 100; // How long to wait for an editor to finish saving.
+
+	private final Path file;
+	private final Listener listener;
+	private LevelIndex levels; // The latest version of the file. Only touched by the watcher thread once it's started.
+	private WatchService watcher;
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * A quick test of the LevelWatcher class. Watches a level file (resources/Levels.txt by default) and reports what changes
+	 * every time it's saved. Stop it with Ctrl+C.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path path = java.nio.file.Paths.get(args.length > 0 ? args[0] : "resources/Levels.txt");
+		LevelWatcher w = new LevelWatcher(path, LevelIndex.read(path), (levels, changed) -> {
+			System.out.println(levels.size() + " levels, changed: " + changed);
+		});
+		w.start();
+		System.out.println("Watching " + path);
+		Thread.currentThread().join();
+	}
+
+	/**
+	 * @param file -- the level file to watch.
+	 * @param levels -- what's in it now. Best made with LevelIndex.read, not open, since the file is going to change.
+	 * @param listener -- told about every change.
+	 */
+	public LevelWatcher(Path file, LevelIndex levels, Listener listener) {
+		this.file = file.toAbsolutePath();
+		this.levels = levels;
+		this.listener = listener;
+	}
+
+	/** Starts watching, on a thread of its own. */
+	public void start() throws IOException {
+		Path dir = file.getParent();
+		watcher = FileSystems.getDefault().newWatchService();
+		// Watch the folder rather than the file: saving by renaming a new copy over the old one replaces the file we'd be watching.
+		dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+		running = true;
+		thread = new Thread(this, "Starlock level watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stops watching. */
+	public void stop() {
+		running = false;
+		try {
+			if (watcher != null) {watcher.close();} // Wakes the thread up, if it's waiting.
+		} catch (IOException e) {
+			// Nothing more we can do. The thread is a daemon, so it won't hold anything up.
+		}
+	}
+
+	public void run() {
+		try {
+			while (running) {
+				WatchKey key = watcher.take();
+				boolean ours = drain(key);
+				if (!ours) {continue;}
+				// Give the editor a moment to finish, and soak up any more events from the same save.
+				Thread.sleep(SETTLE_MILLIS);
+				WatchKey more;
+				while ((more = watcher.poll()) != null) {drain(more);}
+				try {
+					reload();
+				} catch (RuntimeException e) {
+					// A level the game couldn't take, most likely saved halfway through an edit. Say so and keep watching: the game
+					// still has the old levels, and the next save gets another go.
+					System.out.println("Could not reload " + file + ": " + e);
+				}
+			}
+		} catch (InterruptedException e) {
+			// Time to stop.
+		} catch (ClosedWatchServiceException e) {
+			// stop() was called.
+		}
+	}
+
+	/** Reads the events off a key and resets it. Returns true if any of them were about our file. */
+	private boolean drain(WatchKey key) {
+		boolean ours = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			Object context = event.context();
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {ours = true;} // Lost track. Better check.
+			else if (context instanceof Path && file.getFileName().equals(context)) {ours = true;}
+		}
+		key.reset();
+		return ours;
+	}
+
+	/** Reads the file again and passes on the levels if anything changed, even if it's only levels moving around. */
+	private void reload() {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file);
+		} catch (IOException e) {
+			// Probably caught in the middle of a save. There'll be another event when it's done.
+			System.out.println("Could not read " + file + ": " + e.getMessage());
+			return;
+		}
+		if (ByteBuffer.wrap(bytes).equals(levels.contents())) {return;} // Touched, but not changed.
+		BitSet changed = new BitSet();
+		LevelIndex next = levels.update(ByteBuffer.wrap(bytes), changed);
+		listener.reloaded(next, changed);
+		levels = next; // Only once the listener has taken it, so a rejected version is compared against what it really has.
+	}
+}
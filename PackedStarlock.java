@@ -0,0 +1,171 @@
+package starlock;
+
+/**
+ * PackedStarlock is a flattened copy of a Starlock system meant for number crunching rather than playing. Instead of an array of
+ * Body objects, periods, minutes and solutions each live in their own int[] so the inner loops walk straight through memory.
+ * It has no looks or distances; those only matter to the GUI.
+ */
+public class PackedStarlock {
+
+	private final int numBodies;
+	private final int[] periods; // Orbital period of each body, in years.
+	private final int[] solutions; // Solution angle of each body, in minutes.
+	private final int[] minutes; // Current angle of each body, in minutes.
+	private long conjunction;
+	private long year;
+
+	/**
+	 * A quick test of the batch kernel: sweeps a few years of a sample system and prints the positions.
+	 */
+	public static void main(String[] args) {
+		PackedStarlock PS = new PackedStarlock(new int[] {1, 2, 3, 4, 5, 6, 7}, new int[7], 0);
+		int[] years = {0, 1, 2, 3, 4, 5};
+		int[] out = new int[years.length * PS.getNumBodies()];
+		PS.evaluate(years, out);
+		System.out.println("PackedStarlock - BATCH VERSION\n");
+		for (int y = 0; y < years.length; y++) {
+			StringBuilder sb = new StringBuilder("Year " + years[y] + ":");
+			for (int i = 0; i < PS.getNumBodies(); i++) {sb.append(' ').append(out[y * PS.getNumBodies() + i]);}
+			System.out.println(sb);
+		}
+	}
+
+	public PackedStarlock(int[] periods, int[] solutions, long conjunction) {
+		if (periods.length != solutions.length) {throw new IllegalArgumentException("Need one solution per period");}
+		numBodies = periods.length;
+		this.periods = periods.clone();
+		this.solutions = new int[numBodies];
+		for (int i = 0; i < numBodies; i++) {
+			if (periods[i] <= 0) {throw new IllegalArgumentException("Period must be positive: " + periods[i]);}
+			this.solutions[i] = Starlock.pmod(solutions[i], Starlock.MINUTES);
+		}
+		minutes = new int[numBodies];
+		this.conjunction = conjunction;
+		year = 0;
+	}
+
+	/**
+	 * Packs up the bodies of an existing Starlock. Later changes to the Starlock aren't reflected here. Periods have to fit in an int,
+	 * and orbits have to be circles; anything else should stay in the Starlock, which handles long periods and ellipses.
+	 */
+	public PackedStarlock(Starlock sl) {
+		numBodies = sl.getNumBodies();
+		periods = new int[numBodies];
+		solutions = new int[numBodies];
+		minutes = new int[numBodies];
+		Body[] bodies = sl.getBodies();
+		for (int i = 0; i < numBodies; i++) {
+			if (bodies[i].getPeriod() > Integer.MAX_VALUE) {throw new IllegalArgumentException("Period too long to pack: " + bodies[i].getPeriod());}
+			if (!bodies[i].isCircular()) {throw new IllegalArgumentException("Can't pack an elliptical orbit: body " + i);}
+			periods[i] = (int) bodies[i].getPeriod();
+			solutions[i] = bodies[i].getSolution();
+			minutes[i] = bodies[i].getMinutes();
+		}
+		conjunction = sl.getConjunctionYear();
+		year = sl.getYear();
+	}
+
+	/** Same as Starlock.changeYear: rotates all bodies to their position in the given year. */
+	public void changeYear(long year) {
+		this.year = year;
+		minutesAt(year, minutes, 0);
+	}
+
+	/**
+	 * Evaluates many years in one go. The output is laid out one row per year: the position of body i in years[y] ends up in
+	 * out[y * getNumBodies() + i]. The current year of this system isn't changed.
+	 * @param years -- the years to evaluate.
+	 * @param out -- must hold at least years.length * getNumBodies() entries.
+	 */
+	public void evaluate(int[] years, int[] out) {
+		if (out.length < years.length * numBodies) {throw new IllegalArgumentException("Output array is too small");}
+		for (int y = 0; y < years.length; y++) {
+			minutesAt(years[y], out, y * numBodies);
+		}
+	}
+
+	/** As above, for years anywhere in the range of a long. */
+	public void evaluate(long[] years, int[] out) {
+		if (out.length < years.length * numBodies) {throw new IllegalArgumentException("Output array is too small");}
+		for (int y = 0; y < years.length; y++) {
+			minutesAt(years[y], out, y * numBodies);
+		}
+	}
+
+	/**
+	 * Evaluates many years and only reports whether each one solves the puzzle. Cheaper than evaluate when that's all you want,
+	 * since each year stops at the first body that's out of place.
+	 */
+	public void evaluateSolved(int[] years, boolean[] out) {
+		for (int y = 0; y < years.length; y++) {out[y] = solvedIn(years[y]);}
+	}
+
+	/** As above, for years anywhere in the range of a long. */
+	public void evaluateSolved(long[] years, boolean[] out) {
+		for (int y = 0; y < years.length; y++) {out[y] = solvedIn(years[y]);}
+	}
+
+	/** Whether every body is on its solution in the given year. */
+	private boolean solvedIn(long year) {
+		long delta = year - conjunction;
+		boolean overflowed = ((year ^ delta) & (conjunction ^ year)) < 0;
+		for (int i = 0; i < numBodies; i++) {
+			long r = overflowed ? remainder(year, periods[i]) : Starlock.pmod(delta, periods[i]);
+			if ((int) ((long) Starlock.MINUTES * r / periods[i]) != solutions[i]) {return false;}
+		}
+		return true;
+	}
+
+	/**
+	 * One row of positions for the given year, written to out starting at offset. If year - conjunction doesn't fit in a long
+	 * (same check as Starlock.changeYear) each body gets there the slow way, with remainder.
+	 */
+	private void minutesAt(long year, int[] out, int offset) {
+		long delta = year - conjunction;
+		if (((year ^ delta) & (conjunction ^ year)) < 0) {
+			for (int i = 0; i < numBodies; i++) {
+				out[offset + i] = (int) (Starlock.MINUTES * remainder(year, periods[i]) / periods[i]);
+			}
+			return;
+		}
+		row(delta, out, offset);
+	}
+
+	/**
+	 * (year - conjunction) mod p, for when the subtraction would overflow. Both are reduced first, and the difference of two
+	 * numbers less than p always fits.
+	 */
+	private long remainder(long year, int p) {
+		long r = Math.floorMod(year, p) - Math.floorMod(conjunction, p);
+		return (r < 0) ? r + p : r;
+	}
+
+	/**
+	 * The kernel. One row of positions, written to out starting at offset. Kept as a plain counted loop over primitive arrays so that
+	 * the JIT can unroll it. Since periods are ints, MINUTES * r always fits in a long and we don't need Starlock.scale here.
+	 */
+	private void row(long delta, int[] out, int offset) {
+		final int[] p = periods;
+		for (int i = 0; i < numBodies; i++) {
+			long r = delta % p[i];
+			r += (r >> 63) & p[i]; // Branch-free positive modulus: add the period back only when r is negative.
+			out[offset + i] = (int) (Starlock.MINUTES * r / p[i]);
+		}
+	}
+
+	/** Returns true if every body is at its solution angle in the current year. */
+	public boolean isSolved() {
+		for (int i = 0; i < numBodies; i++) {
+			if (minutes[i] != solutions[i]) {return false;}
+		}
+		return true;
+	}
+
+	public int getNumBodies() {return numBodies;}
+	public long getYear() {return year;}
+	public int getMinutes(int i) {return minutes[i];}
+	public int getPeriod(int i) {return periods[i];}
+	public int getSolution(int i) {return solutions[i];}
+	public long getConjunctionYear() {return conjunction;}
+	public void setConjunctionYear(long c) {conjunction = c;}
+}
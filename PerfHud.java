@@ -0,0 +1,92 @@
+package starlock;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * PerfHud keeps track of how long frames are taking and draws a little table of numbers over the game. Turn it on with
+ * -Dstarlock.hud=true. It shows percentiles of the time between frames over the last couple of seconds, the time spent updating
+ * and painting, and how many ticks went missing because a frame ran long.
+ */
+public class PerfHud {
+
+	private static final int SAMPLES = 120; // How many frames to keep: three seconds or so at 40 FPS.
+
+	private final long expected; // The time we'd like between frames, in nanoseconds.
+	private final long[] intervals = new long[SAMPLES]; // Time between the starts of consecutive frames. A ring buffer.
+	private int next = 0; // Where the next interval goes. Wraps around, so it's always in range, however long the game runs.
+	private int count = 0; // How many intervals are in the buffer. Stops at SAMPLES.
+	private long lastFrame = 0;
+	private double updateNanos, paintNanos; // Moving averages.
+	private long dropped = 0;
+	private final long[] sorted = new long[SAMPLES]; // Scratch space for working out percentiles.
+	private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+
+	/** @param fps -- the frame rate we're aiming for, used to spot dropped ticks. */
+	public PerfHud(int fps) {
+		expected = 1000000000L / fps;
+	}
+
+	/** Records the time taken by one update pass. */
+	public synchronized void update(long nanos) {
+		updateNanos = (updateNanos == 0) ? nanos : 0.9 * updateNanos + 0.1 * nanos;
+	}
+
+	/** Records the start of a frame. */
+	public synchronized void frameStart(long now) {
+		if (lastFrame != 0) {
+			long interval = now - lastFrame;
+			// Long gaps are the game sleeping because nothing was moving, not stutter, so leave them out.
+			if (interval < 1000000000L) {
+				intervals[next] = interval;
+				next = (next + 1) % SAMPLES;
+				if (count < SAMPLES) {count++;}
+				if (interval > expected * 3 / 2) {dropped += interval / expected - 1;}
+			}
+		}
+		lastFrame = now;
+	}
+
+	/** Records the time taken painting a frame. */
+	public synchronized void paint(long nanos) {
+		paintNanos = (paintNanos == 0) ? nanos : 0.9 * paintNanos + 0.1 * nanos;
+	}
+
+	/** Returns the given percentile (0 to 100) of recent frame intervals, in nanoseconds. */
+	public synchronized long percentile(double p) {
+		int n = count;
+		if (n == 0) {return 0;}
+		System.arraycopy(intervals, 0, sorted, 0, n);
+		Arrays.sort(sorted, 0, n);
+		int i = (int) Math.ceil(p / 100 * n) - 1; // Nearest-rank percentile.
+		return sorted[Math.max(0, Math.min(n - 1, i))];
+	}
+
+	public synchronized long getDropped() {return dropped;}
+
+	/** Draws the numbers in the top right corner. */
+	public void draw(Graphics2D g2d, int right) {
+		String[] lines;
+		synchronized (this) {
+			lines = new String[] {
+				String.format(Locale.ROOT, "frame p50 %6.2f ms", percentile(50) / 1e6),
+				String.format(Locale.ROOT, "frame p95 %6.2f ms", percentile(95) / 1e6),
+				String.format(Locale.ROOT, "frame p99 %6.2f ms", percentile(99) / 1e6),
+				String.format(Locale.ROOT, "update    %6.2f ms", updateNanos / 1e6),
+				String.format(Locale.ROOT, "paint     %6.2f ms", paintNanos / 1e6),
+				String.format(Locale.ROOT, "dropped   %6d", dropped),
+			};
+		}
+		g2d.setFont(font);
+		int x = right - 150;
+		g2d.setColor(new Color(0, 0, 0, 160));
+		g2d.fillRect(x - 6, 4, 152, lines.length * 13 + 8);
+		g2d.setColor(Color.green);
+		for (int i = 0; i < lines.length; i++) {
+			g2d.drawString(lines[i], x, 18 + i * 13);
+		}
+	}
+}
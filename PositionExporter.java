@@ -0,0 +1,226 @@
+package starlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * PositionExporter writes out where every body in a system is, year by year, over a range of years. It can write CSV (one row per
+ * body per year) or JSON Lines (one object per year), to a file, a channel or any Appendable.
+ *
+ * The tables can run to gigabytes, so rows are formatted straight into one reusable byte buffer, a digit at a time, and the buffer
+ * is only handed over when it fills up. Nothing is allocated per row. The years are walked with a YearStepper.
+ *
+ * Optionally each row also gets the body's x and y, relative to the central star, just as BodyGUI would place it on screen.
+ */
+public class PositionExporter {
+
+	/** The output formats on offer. */
+	public enum Format {
+		/** year,body,minutes[,x,y] with a header line. */
+		CSV,
+		/** {"year":Y,"minutes":[...][,"x":[...],"y":[...]]} on each line. */
+		JSONL
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Starlock sl;
+	private final Format format;
+	private PositionProvider positions = null; // Null means minutes only, no x and y.
+
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos = 0;
+	private final ByteBuffer bytes = ByteBuffer.wrap(buf);
+	private WritableByteChannel channel; // Where the buffer goes when it's full. One of these two is set during an export.
+	private Appendable appendable;
+
+	/** The buffer seen as characters, so it can go to an Appendable without being copied into a String. It's all ASCII. */
+	private final CharSequence chars = new CharSequence() {
+		public int length() {return pos;}
+		public char charAt(int i) {return (char) buf[i];}
+		public CharSequence subSequence(int start, int end) {return new String(buf, start, end - start, StandardCharsets.US_ASCII);}
+		public String toString() {return subSequence(0, pos).toString();}
+	};
+
+	/**
+	 * Exports a level's positions to standard out.
+	 * Usage: PositionExporter levelFile level from to [step] [csv|jsonl] [xy]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: PositionExporter <levelFile> <level> <from> <to> [step] [csv|jsonl] [xy]");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		List<Starlock> levels = LevelPack.isPack(path) ? LevelPack.open(path) : LevelIndex.open(path);
+		Starlock SL = levels.get(Integer.parseInt(args[1]));
+		long step = (args.length > 4) ? Long.parseLong(args[4]) : 1;
+		Format format = (args.length > 5 && args[5].equalsIgnoreCase("jsonl")) ? Format.JSONL : Format.CSV;
+
+		PositionExporter pe = new PositionExporter(SL, format);
+		if (args.length > 6 && args[6].equals("xy")) {pe.setPositionProvider(TrigTable.INSTANCE);}
+		long rows = pe.export(Long.parseLong(args[2]), Long.parseLong(args[3]), step, Channels.newChannel(System.out));
+		System.err.println(rows + " rows");
+	}
+
+	public PositionExporter(Starlock sl, Format format) {
+		this.sl = sl;
+		this.format = format;
+	}
+
+	/** Adds x and y columns, worked out with the given provider. Pass null to leave them out. */
+	public void setPositionProvider(PositionProvider p) {
+		positions = p;
+	}
+
+	/** Writes the years in [from, to), step years apart, to a file. Returns the number of rows written. */
+	public long export(long from, long to, long step, Path file) throws IOException {
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			return export(from, to, step, fc);
+		}
+	}
+
+	/** Writes the years in [from, to), step years apart, to a channel. The channel is left open. */
+	public long export(long from, long to, long step, WritableByteChannel out) throws IOException {
+		channel = out;
+		appendable = null;
+		try {
+			return run(from, to, step);
+		} finally {
+			channel = null;
+		}
+	}
+
+	/** Writes the years in [from, to), step years apart, to an Appendable such as a Writer or StringBuilder. */
+	public long export(long from, long to, long step, Appendable out) throws IOException {
+		appendable = out;
+		channel = null;
+		try {
+			return run(from, to, step);
+		} finally {
+			appendable = null;
+		}
+	}
+
+	private long run(long from, long to, long step) throws IOException {
+		pos = 0;
+		int n = sl.getNumBodies();
+		Body[] bodies = sl.getBodies();
+		double[] radii = new double[n]; // How far out each body is this year. Only the distance, unless the orbit is an ellipse.
+
+		if (format == Format.CSV) {
+			write(positions != null ? "year,body,minutes,x,y\n" : "year,body,minutes\n");
+		}
+
+		long rows = 0;
+		YearStepper ys = sl.stepper(from, to, step);
+		while (ys.hasNext()) {
+			int[] minutes = ys.next();
+			long year = ys.getYear();
+			if (positions != null) {
+				for (int i = 0; i < n; i++) {radii[i] = bodies[i].radiusAt(minutes[i]);}
+			}
+			if (format == Format.CSV) {
+				for (int i = 0; i < n; i++) {
+					room(80);
+					write(year);
+					write(',');
+					write(i);
+					write(',');
+					write(minutes[i]);
+					if (positions != null) {
+						write(',');
+						write(positions.getX(minutes[i], radii[i]));
+						write(',');
+						write(positions.getY(minutes[i], radii[i]));
+					}
+					write('\n');
+					rows++;
+				}
+			} else {
+				room(40);
+				write("{\"year\":");
+				write(year);
+				write(",\"minutes\":[");
+				for (int i = 0; i < n; i++) {
+					room(12);
+					if (i > 0) {write(',');}
+					write(minutes[i]);
+				}
+				if (positions != null) {
+					write("],\"x\":[");
+					for (int i = 0; i < n; i++) {
+						room(12);
+						if (i > 0) {write(',');}
+						write(positions.getX(minutes[i], radii[i]));
+					}
+					write("],\"y\":[");
+					for (int i = 0; i < n; i++) {
+						room(12);
+						if (i > 0) {write(',');}
+						write(positions.getY(minutes[i], radii[i]));
+					}
+				}
+				room(4);
+				write("]}\n");
+				rows++;
+			}
+		}
+		flush();
+		return rows;
+	}
+
+	/** Makes sure there's space for at least this many more bytes, flushing if there isn't. */
+	private void room(int needed) throws IOException {
+		if (pos + needed > buf.length) {flush();}
+	}
+
+	/** Hands whatever is in the buffer to the output and empties it. */
+	private void flush() throws IOException {
+		if (pos == 0) {return;}
+		if (channel != null) {
+			bytes.clear();
+			bytes.limit(pos);
+			while (bytes.hasRemaining()) {channel.write(bytes);}
+		} else {
+			appendable.append(chars, 0, pos);
+		}
+		pos = 0;
+	}
+
+	private void write(char c) {
+		buf[pos++] = (byte) c;
+	}
+
+	/** Writes some ASCII text. Only used for the fixed bits of the format. */
+	private void write(String s) throws IOException {
+		room(s.length());
+		for (int i = 0; i < s.length(); i++) {buf[pos++] = (byte) s.charAt(i);}
+	}
+
+	/** Writes a whole number in decimal, without going through a String. */
+	private void write(long v) {
+		if (v < 0) {
+			buf[pos++] = '-';
+		} else {
+			v = -v; // Work with negatives, so that Long.MIN_VALUE works too.
+		}
+		// Count the digits, then fill them in from the right.
+		int digits = 1;
+		for (long t = v; t <= -10; t /= 10) {digits++;}
+		int end = pos + digits;
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' - (v % 10));
+			v /= 10;
+		}
+		pos = end;
+	}
+}
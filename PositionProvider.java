@@ -0,0 +1,27 @@
+package starlock;
+
+/**
+ * A PositionProvider turns an angle (in minutes) and a distance from the central star into screen coordinates, relative to the star.
+ * BodyGUI uses one to place its bodies and solution circles, and can be switched between them with BodyGUI.setPositionProvider.
+ */
+public interface PositionProvider {
+
+	/** Converts minutes to radians: 2 pi per full circle of 21600 minutes. */
+	public static final double MINUTES_TO_RADIANS = 2.00 * Math.PI / 21600;
+
+	/**
+	 * The straightforward provider that calls Math.cos and Math.sin every time.
+	 * First take into account that 0 degrees is DUE NORTH, NOT DUE EAST! So subtract 5400 arcminutes. Then, convert to radians
+	 * (multiply by 0.000290...). Finally, scale by distance.
+	 */
+	public static final PositionProvider MATH = new PositionProvider() {
+		public int getX(int minutes, double distance) {return (int) (Math.cos((minutes - 5400) * MINUTES_TO_RADIANS) * distance);}
+		public int getY(int minutes, double distance) {return (int) (Math.sin((minutes - 5400) * MINUTES_TO_RADIANS) * distance);}
+	};
+
+	/** Returns the x coordinate of something at the given angle (0 to 21599 minutes) and distance. */
+	public int getX(int minutes, double distance);
+
+	/** Returns the y coordinate of something at the given angle (0 to 21599 minutes) and distance. */
+	public int getY(int minutes, double distance);
+}
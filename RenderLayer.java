@@ -0,0 +1,73 @@
+package starlock;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.function.Consumer;
+
+/**
+ * A RenderLayer is an off-screen picture of something that rarely changes, like the background and the orbits. It's drawn once
+ * with its painter, kept in video memory where possible, and then simply copied to the screen every frame until somebody calls
+ * invalidate(). If the video memory copy gets lost (which can happen at any time, e.g. when the screen mode changes), it's quietly
+ * painted again.
+ */
+public class RenderLayer {
+
+	private final int width, height;
+	private final Consumer<Graphics2D> painter; // Draws the contents of the layer.
+	private VolatileImage image; // The accelerated copy, when we have a screen to be accelerated on.
+	private BufferedImage fallback; // Used when there's no GraphicsConfiguration, e.g. when drawing off-screen.
+	private boolean dirty = true; // True if the contents need to be painted again.
+
+	public RenderLayer(int width, int height, Consumer<Graphics2D> painter) {
+		this.width = width;
+		this.height = height;
+		this.painter = painter;
+	}
+
+	/** Marks the layer as out of date, so it's painted again next time it's drawn. */
+	public void invalidate() {
+		dirty = true;
+	}
+
+	/**
+	 * Draws the layer at (0, 0), painting it first if it's out of date.
+	 * @param g -- where to draw it.
+	 * @param gc -- the configuration of the screen we're drawing to, or null if there isn't one.
+	 */
+	public void draw(Graphics2D g, GraphicsConfiguration gc) {
+		if (gc == null) {
+			if (fallback == null) {
+				fallback = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				dirty = true;
+			}
+			if (dirty) {repaint(fallback.createGraphics());}
+			g.drawImage(fallback, 0, 0, null);
+			return;
+		}
+
+		do {
+			int status = (image == null) ? VolatileImage.IMAGE_INCOMPATIBLE : image.validate(gc);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (image != null) {image.flush();}
+				image = gc.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+				dirty = true;
+			} else if (status == VolatileImage.IMAGE_RESTORED) {
+				dirty = true;
+			}
+			if (dirty) {repaint(image.createGraphics());}
+			g.drawImage(image, 0, 0, null);
+		} while (image.contentsLost());
+	}
+
+	private void repaint(Graphics2D lg) {
+		lg.setColor(Color.black);
+		lg.fillRect(0, 0, width, height);
+		painter.accept(lg);
+		lg.dispose();
+		dirty = false;
+	}
+}
@@ -0,0 +1,114 @@
+package starlock;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RenderLoop drives the game from its own thread instead of a Swing Timer. It calls its Frame at a steady target rate, measuring
+ * how long each frame really took and sleeping only for whatever is left of the frame's time slot. When a frame reports that
+ * nothing is moving, the loop goes to sleep entirely until somebody calls wake(), so an idle game uses no CPU at all.
+ */
+public class RenderLoop implements Runnable {
+
+	/** One frame's worth of work: update and draw. Returns true if there's still something moving and more frames are needed. */
+	public interface Frame {
+		public boolean frame();
+	}
+
+	private final Frame frame;
+	private final long period; // Nanoseconds per frame.
+	private Thread thread;
+	private volatile boolean running;
+
+	private boolean awake = true; // False while suspended. Guarded by this.
+	private long wakes = 0; // Counts calls to wake(), so a wake during a frame isn't lost. Guarded by this.
+
+	// Measurements, for anyone who is curious.
+	private volatile long lastFrameNanos; // How long the last frame's work took.
+	private volatile double averageFrameNanos; // A moving average of the above.
+	private volatile long frames; // Frames drawn.
+	private volatile long droppedFrames; // Frame slots we missed entirely because a frame ran long.
+
+	/**
+	 * @param frame -- the work to do every frame.
+	 * @param fps -- the target frame rate.
+	 */
+	public RenderLoop(Frame frame, int fps) {
+		if (fps <= 0) {throw new IllegalArgumentException("Frame rate must be positive: " + fps);}
+		this.frame = frame;
+		this.period = 1000000000L / fps;
+	}
+
+	/** Starts the loop on its own thread. */
+	public void start() {
+		running = true;
+		thread = new Thread(this, "Starlock render loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stops the loop. The current frame, if any, is allowed to finish. */
+	public void stop() {
+		running = false;
+		wake();
+	}
+
+	/** Resumes the loop if it's suspended. Call this whenever the model changes or there's input to react to. */
+	public synchronized void wake() {
+		awake = true;
+		wakes++;
+		notifyAll();
+	}
+
+	/** Returns true if the loop is currently suspended for lack of anything to do. */
+	public synchronized boolean isSuspended() {
+		return !awake;
+	}
+
+	public void run() {
+		long next = System.nanoTime(); // When the next frame is due.
+		while (running) {
+			long wakesBefore;
+			synchronized (this) {
+				boolean slept = false;
+				while (!awake && running) {
+					slept = true;
+					try {wait();}
+					catch (InterruptedException e) {return;}
+				}
+				if (slept) {next = System.nanoTime();} // Don't try to catch up on the frames we slept through.
+				wakesBefore = wakes;
+			}
+			if (!running) {break;}
+
+			long start = System.nanoTime();
+			boolean busy = frame.frame();
+			long end = System.nanoTime();
+			lastFrameNanos = end - start;
+			averageFrameNanos = (frames == 0) ? lastFrameNanos : 0.9 * averageFrameNanos + 0.1 * lastFrameNanos;
+			frames++;
+
+			if (!busy) {
+				synchronized (this) {
+					if (wakes == wakesBefore) {awake = false;} // Nothing moving, and nobody poked us while we drew. Time for a nap.
+				}
+			}
+
+			// Sleep until the next frame is due. If we're running so late that whole frames went by, skip them rather than
+			// rushing to catch up.
+			next += period;
+			long now = System.nanoTime();
+			if (now - next > period) {
+				droppedFrames += (now - next) / period;
+				next = now;
+			}
+			long sleep = next - now;
+			if (sleep > 0) {LockSupport.parkNanos(sleep);}
+		}
+	}
+
+	public long getLastFrameNanos() {return lastFrameNanos;}
+	public double getAverageFrameNanos() {return averageFrameNanos;}
+	public long getFrames() {return frames;}
+	public long getDroppedFrames() {return droppedFrames;}
+	public long getPeriodNanos() {return period;}
+}
@@ -0,0 +1,166 @@
+package starlock;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ResidueIndex answers "which years satisfy these bodies?" for one Starlock system over a fixed range of years, and is meant for
+ * asking that question many times over.
+ *
+ * For each body and angle window it builds, once, a bitset with one bit per year in the range, set where the body is in the
+ * window. The years a body spends in a window are one run of residues modulo its period, so the bitset is filled a whole run of
+ * bits at a time, not a year at a time. A question about several bodies is then just the bitsets ANDed together, 64 years to the
+ * word. Bitsets are cached, so repeated and overlapping questions are nearly free.
+ *
+ * Bodies can be added to and removed from the system through the index, which keeps the cache in step. The bitsets belong to
+ * the Body objects, so removing one body doesn't disturb anyone else's.
+ */
+public class ResidueIndex {
+
+	private final Starlock sl;
+	private final long from;
+	private final int length; // Number of years in the range. Bit i is the year from + i.
+	private long conjunction; // The conjunction the cache was built for.
+
+	// The cached bitsets, by body and then by window.
+	private final Map<Body, Map<Long, BitSet>> cache = new ConcurrentHashMap<Body, Map<Long, BitSet>>();
+
+	/**
+	 * A quick test of the ResidueIndex class. Asks a few questions of a small system and checks them year by year.
+	 */
+	public static void main(String[] args) {
+		Starlock SL = new Starlock("Test", 3);
+		SL.addBody(50, 7, 6171, "#FF0000");
+		SL.addBody(100, 365, 177, "#00FF00");
+		SL.addBody(150, 4332, 0, "#0000FF");
+		ResidueIndex index = new ResidueIndex(SL, 0, 10000000);
+
+		BitSet near = index.query(new int[] {0, 1, 2}, new int[] {6171, 177, 0}, 60);
+		System.out.println("Years near the solutions: " + near.cardinality() + ", first " + index.yearOf(near.nextSetBit(0)));
+		BitSet solved = index.solved();
+		System.out.println("Years solved exactly: " + solved.cardinality());
+		int bad = 0;
+		for (int i = 0; i < 1000000; i++) {
+			SL.changeYear(index.yearOf(i));
+			if (SL.isSolved() != solved.get(i)) {bad++;}
+		}
+		System.out.println(bad + " mismatches in the first million years");
+
+		index.removeBody(0);
+		System.out.println("Without the first body, years solved exactly: " + index.solved().cardinality());
+	}
+
+	/**
+	 * @param sl -- the system to index.
+	 * @param from -- the first year of the range.
+	 * @param to -- the range stops before this year. There can be at most Integer.MAX_VALUE years in it.
+	 */
+	public ResidueIndex(Starlock sl, long from, long to) {
+		if (to <= from || to - from > Integer.MAX_VALUE || to - from < 0) {throw new IllegalArgumentException("Bad range: " + from + " to " + to);}
+		this.sl = sl;
+		this.from = from;
+		length = (int) (to - from);
+		conjunction = sl.getConjunctionYear();
+	}
+
+	/** Returns the years (as bits) in which body i is within tolerance minutes of the given angle. Don't modify the result. */
+	public BitSet near(int i, int minutes, int tolerance) {
+		return window(i, minutes - tolerance, 2 * tolerance + 1);
+	}
+
+	/**
+	 * Returns the years (as bits) in which body i is at one of the angles first, first + 1, ..., first + width - 1. The result is
+	 * shared with the cache, so don't modify it; clone it first.
+	 */
+	public BitSet window(int i, int first, int width) {
+		if (i < 0 || i >= sl.getNumBodies()) {throw new IndexOutOfBoundsException("Body " + i + " of " + sl.getNumBodies());}
+		if (sl.getConjunctionYear() != conjunction) {
+			// The whole system has moved; nothing we've cached is any good.
+			cache.clear();
+			conjunction = sl.getConjunctionYear();
+		}
+		final Body body = sl.getBody(i);
+		first = Starlock.pmod(first, Starlock.MINUTES);
+		width = Math.max(0, Math.min(width, Starlock.MINUTES));
+		final int f = first, w = width;
+		Map<Long, BitSet> windows = cache.computeIfAbsent(body, b -> new ConcurrentHashMap<Long, BitSet>());
+		return windows.computeIfAbsent(((long) first << 32) | width, k -> build(body, f, w));
+	}
+
+	/** Fills in the bitset for one body's window, a run of residues at a time. */
+	private BitSet build(Body body, int first, int width) {
+		BitSet bits = new BitSet(length);
+		if (width == 0) {return bits;}
+		long p = body.getPeriod();
+		EventSearch.Window window = new EventSearch.Window(body, first, width, Starlock.MINUTES);
+		// The residue of the first year, i.e. (from - conjunction) mod p.
+		long r0 = Starlock.pmod(from, p) - Starlock.pmod(conjunction, p);
+		if (r0 < 0) {r0 += p;}
+		for (int k = 0; k < window.lo.length; k++) {
+			long run = window.hi[k] - window.lo[k];
+			// The offset of the first year with residue lo, less a period so we catch a run we start part way through.
+			for (long off = Starlock.pmod(window.lo[k] - r0, p) - p; off < length; off += p) {
+				if (off + run > 0) {bits.set((int) Math.max(off, 0), (int) Math.min(off + run, length));}
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the years in which every one of the given bodies is within tolerance minutes of its target angle. This is a new
+	 * bitset, which the caller can do what they like with.
+	 */
+	public BitSet query(int[] bodies, int[] targets, int tolerance) {
+		if (bodies.length != targets.length) {throw new IllegalArgumentException("Need one target per body");}
+		BitSet result = new BitSet(length);
+		result.set(0, length);
+		for (int k = 0; k < bodies.length && !result.isEmpty(); k++) {
+			result.and(near(bodies[k], targets[k], tolerance));
+		}
+		return result;
+	}
+
+	/** Returns the years in which every body is exactly on its solution. */
+	public BitSet solved() {
+		int n = sl.getNumBodies();
+		int[] bodies = new int[n];
+		int[] targets = new int[n];
+		for (int i = 0; i < n; i++) {
+			bodies[i] = i;
+			targets[i] = sl.getBody(i).getSolution();
+		}
+		return query(bodies, targets, 0);
+	}
+
+	/** Adds a body to the system. */
+	public void addBody(int distance, long period, int solution, String look) {
+		sl.addBody(distance, period, solution, look);
+	}
+
+	/** Removes body i from the system, along with its bitsets. The bodies after it move down one place. */
+	public void removeBody(int i) {
+		if (i < 0 || i >= sl.getNumBodies()) {throw new IndexOutOfBoundsException("Body " + i + " of " + sl.getNumBodies());}
+		cache.remove(sl.getBody(i));
+		sl.removeBody(i);
+	}
+
+	/** Forgets every cached bitset. Needed after changing a body's orbit (see Body.setOrbit), which the index can't see. */
+	public void clearCache() {
+		cache.clear();
+	}
+
+	/** Returns the year that bit i stands for. */
+	public long yearOf(int i) {
+		return from + i;
+	}
+
+	/** Returns the bit that stands for the given year, or -1 if it's not in the range. */
+	public int indexOf(long year) {
+		long i = year - from;
+		return (year >= from && i >= 0 && i < length) ? (int) i : -1;
+	}
+
+	public long getFrom() {return from;}
+	public int getLength() {return length;}
+}
@@ -0,0 +1,168 @@
+package starlock;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A SpriteAtlas packs lots of little pictures (numerals, button backgrounds, planets) into one big image, each already scaled to
+ * the size it's drawn at on screen. Drawing a sprite is then a plain, unscaled copy of a rectangle out of that one image: no
+ * scaling every frame, and no switching between source images, which the graphics pipeline is much happier with. The big image
+ * is made in the screen's format, so Java2D can keep it in video memory.
+ *
+ * Sprites can be added at any time. They're packed (in shelves, tallest first) by pack(), which whoever adds them should call
+ * before drawing starts, e.g. when a level is shown; draw() does it too, as a fallback. Packing only scales the new sprites: the
+ * ones already in the atlas stay where they are, and if it has to grow they're copied across as they are. Once a sprite has been
+ * scaled into the atlas its source image is let go, so the atlas doesn't keep every picture it was ever given in memory (see
+ * AssetCache).
+ */
+public class SpriteAtlas {
+
+	private static final int PADDING = 1; // Empty pixels around each sprite, so filtering never picks up a neighbour.
+
+	/** Where one sprite comes from, and where it ended up. */
+	private static class Sprite {
+		BufferedImage src; // Null once it's in the atlas.
+		int sx, sy, sw, sh; // The part of the source image to use...
+		int w, h; // ...the size to draw it at...
+		int ax, ay; // ...and where it is in the atlas.
+	}
+
+	private final ArrayList<Sprite> sprites = new ArrayList<Sprite>();
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private BufferedImage atlas;
+	private int packed = 0; // Sprites before this one are in the atlas. The rest are waiting for pack().
+	private int shelfX = 0, shelfY = 0, shelfH = 0; // Where the next sprite goes: along the last shelf, which is shelfH tall so far.
+
+	/**
+	 * A quick test of the SpriteAtlas class. Packs the numerals and planets and reports how big the atlas came out.
+	 */
+	public static void main(String[] args) {
+		SpriteAtlas sa = new SpriteAtlas();
+		for (int i = 0; i < 7; i++) {sa.add("numeral" + i, AssetCache.get("resources/" + i + ".png"), 64, 64);}
+		String[] planets = {"akrono", "cesius", "chalchi", "mu", "thenia", "um", "vulabolg"};
+		for (String p : planets) {sa.add(p, AssetCache.get("resources/" + p + ".png"), 20, 20);}
+		BufferedImage screen = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+		sa.draw(screen.getGraphics(), sa.get("numeral3"), 10, 10);
+		System.out.println(sa.size() + " sprites in a " + sa.atlas.getWidth() + "x" + sa.atlas.getHeight() + " atlas");
+	}
+
+	/** Adds a whole image, scaled to w by h. See the other add. */
+	public int add(String key, BufferedImage src, int w, int h) {
+		if (src == null) {return -1;}
+		return add(key, src, 0, 0, src.getWidth(), src.getHeight(), w, h);
+	}
+
+	/**
+	 * Adds the part of src at (sx, sy), sw by sh, to be drawn at w by h. Returns its id for draw(). If there's already a sprite
+	 * with this key, that one's id is returned and nothing is added. Returns -1 if there's no image (it didn't load), and draw()
+	 * quietly skips -1.
+	 */
+	public int add(String key, BufferedImage src, int sx, int sy, int sw, int sh, int w, int h) {
+		Integer id = ids.get(key);
+		if (id != null) {return id;}
+		if (src == null || w <= 0 || h <= 0) {return -1;}
+		Sprite s = new Sprite();
+		s.src = src;
+		s.sx = sx;
+		s.sy = sy;
+		s.sw = sw;
+		s.sh = sh;
+		s.w = w;
+		s.h = h;
+		sprites.add(s);
+		ids.put(key, sprites.size() - 1);
+		return sprites.size() - 1;
+	}
+
+	/** Returns the id of the sprite with the given key, or -1 if there isn't one. */
+	public int get(String key) {
+		Integer id = ids.get(key);
+		return (id == null) ? -1 : id;
+	}
+
+	public int size() {return sprites.size();}
+	public int getWidth(int id) {return sprites.get(id).w;}
+	public int getHeight(int id) {return sprites.get(id).h;}
+
+	/** Draws sprite id with its top left corner at (x, y), at the size it was added with. */
+	public void draw(Graphics g, int id, int x, int y) {
+		if (id < 0) {return;}
+		if (id >= packed) {pack();} // Somebody forgot. Better late than never.
+		Sprite s = sprites.get(id);
+		g.drawImage(atlas, x, y, x + s.w, y + s.h, s.ax, s.ay, s.ax + s.w, s.ay + s.h, null);
+	}
+
+	/**
+	 * Puts every sprite added since last time into the atlas. They're laid out in shelves, tallest first, after the ones already
+	 * there, and drawn in scaled. If they don't fit, the atlas grows (at least doubling in height, so this doesn't happen often)
+	 * and what was already in it is copied over unscaled.
+	 */
+	public void pack() {
+		if (packed == sprites.size()) {return;}
+		Integer[] order = new Integer[sprites.size() - packed];
+		long area = 0;
+		int widest = 1;
+		for (int i = 0; i < order.length; i++) {
+			order[i] = packed + i;
+			Sprite s = sprites.get(packed + i);
+			area += (long) (s.w + PADDING * 2) * (s.h + PADDING * 2);
+			widest = Math.max(widest, s.w + PADDING * 2);
+		}
+		Arrays.sort(order, (a, b) -> sprites.get(b).h - sprites.get(a).h);
+		// Aim for roughly square, rounded up to a power of two. Once there is an atlas, only ever wider, for a sprite that won't fit.
+		int width = Math.max(Integer.highestOneBit((int) Math.ceil(Math.sqrt(area))) * 2, Integer.highestOneBit(widest) * 2);
+		if (atlas != null) {width = Math.max(atlas.getWidth(), Integer.highestOneBit(widest) * 2);}
+
+		for (int i : order) {
+			Sprite s = sprites.get(i);
+			if (shelfX + s.w + PADDING * 2 > width) {
+				// Full. Start a new shelf above the tallest thing on this one.
+				shelfY += shelfH;
+				shelfX = 0;
+				shelfH = 0;
+			}
+			s.ax = shelfX + PADDING;
+			s.ay = shelfY + PADDING;
+			shelfX += s.w + PADDING * 2;
+			shelfH = Math.max(shelfH, s.h + PADDING * 2);
+		}
+		int height = Math.max(1, shelfY + shelfH);
+
+		if (atlas == null || width > atlas.getWidth() || height > atlas.getHeight()) {
+			BufferedImage old = atlas;
+			if (old != null) {height = Math.max(height, old.getHeight() * 2);}
+			if (GraphicsEnvironment.isHeadless()) {
+				atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			} else {
+				GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+				atlas = gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+			}
+			if (old != null) {
+				Graphics2D g = atlas.createGraphics();
+				g.setComposite(AlphaComposite.Src); // A straight copy, see-through bits and all.
+				g.drawImage(old, 0, 0, null);
+				g.dispose();
+			}
+		}
+		Graphics2D g = atlas.createGraphics();
+		// Scaling only happens here, once per sprite, so it can afford to be done nicely.
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		for (int i : order) {
+			Sprite s = sprites.get(i);
+			g.drawImage(s.src, s.ax, s.ay, s.ax + s.w, s.ay + s.h, s.sx, s.sy, s.sx + s.sw, s.sy + s.sh, null);
+			s.src = null; // In the atlas now. Let the cache decide whether to keep the original.
+		}
+		g.dispose();
+		packed = sprites.size();
+	}
+}
@@ -1,5 +1,8 @@
 package starlock;
 
+import java.math.BigInteger;
+import java.util.Arrays;
+
 /**
  * Starlock is a project born out of an interest in predicting astronomical events in a fictional universe.
  * Now, it's not constrained to just that universe, and can be used as a fun puzzle.
@@ -9,14 +12,22 @@ package starlock;
 public class Starlock {
 
 	private String title; // The name of this puzzle level
-	private int year; // The current year.
-	private int conjunction; // The first year at which all bodies are aligned at 0 minutes rotation.
+	private long year; // The current year.
+	private BigInteger bigYear; // The current year, only when it's too large for a long. Null otherwise.
+	private long conjunction; // The first year at which all bodies are aligned at 0 minutes rotation.
 							 // Note that 0 minutes rotation indicates straight up on the screen.
 							 // 10800 minutes would be 180 degrees, or straight down towards the bottom of the screen
 							 // 5400 minutes would be 90 degrees to the right, clockwise you see.
 	
 	private Body[] planets; // An array of all moving bodies in the system
 	private int numBodies; // The number of initialized rotating objects in our puzzle, starts at 0.
+	// How many of them are on their solutions. Kept up to date by the Bodies themselves, so isSolved() is instant. Moving bodies
+	// changes it under the lock, but it's volatile so isSolved() can be called from any thread without taking it.
+	private volatile int numSolved;
+	
+	// The latest picture of the system, for other threads. Never changed: when the bodies move it's dropped, and the next call to
+	// getSnapshot() takes a new one. That way a sweep through thousands of years that nobody is watching doesn't make any garbage.
+	private volatile StarlockSnapshot snapshot;
 	
 	public static final int MINUTES = 21600; // There are 21,600 minutes in a full 360 degrees
 	
@@ -39,7 +50,7 @@ public class Starlock {
 		System.out.println(SL);	
 	}
 
-	public Starlock(String title, int conjunction){
+	public Starlock(String title, long conjunction){
 		this.title = title;
 		this.conjunction = conjunction;
 		year = 0;
@@ -57,7 +68,7 @@ public class Starlock {
 	
 	/** Add a new planet to the system, with distance (pixels), and orbital period (in years). If the array isn't large
 	 *  enough, more space is allocated. */
-	public void addBody(int distance, int period){
+	public void addBody(int distance, long period){
 		// Is there space to add this body?
 		if (planets.length <= numBodies) {
 			// We need to make more space
@@ -71,7 +82,10 @@ public class Starlock {
 		
 		// We're good to go, let's really create the new body
 		planets[numBodies] = new Body(distance, period);
+		planets[numBodies].owner = this;
+		if (planets[numBodies].isSolved()) {numSolved++;} // At 0 minutes, with a solution of 0, so yes.
 		numBodies++;
+		snapshot = null; // Out of date. Rebuilt when somebody asks for it.
 	}
 	
 	/**
@@ -81,37 +95,173 @@ public class Starlock {
 	 * @param solution
 	 * @param look
 	 */
-	public void addBody(int distance, int period, int solution, String look) {
+	public void addBody(int distance, long period, int solution, String look) {
 		addBody(distance, period);
 		planets[numBodies-1].setSolution(solution);
 		planets[numBodies-1].setLook(look);
 	}
 	
+	/**
+	 * Add a new planet on an elliptical orbit. Distance is the semi-major axis; eccentricity and periapsis are as in Body.setOrbit.
+	 */
+	public void addBody(int distance, long period, int solution, String look, double eccentricity, int periapsis) {
+		addBody(distance, period, solution, look);
+		planets[numBodies-1].setOrbit(eccentricity, periapsis);
+	}
+	
 	/** Returns the current number of initialized and active bodies. */
 	public int getNumBodies() {
 		return numBodies;
 	}
 	
+	/** Removes the Body at the given index. The ones after it move down one place. */
+	public void removeBody(int i){
+		if (i < 0 || i >= numBodies) {throw new IndexOutOfBoundsException("Body " + i + " of " + numBodies);}
+		if (planets[i].isSolved()) {numSolved--;}
+		planets[i].owner = null;
+		System.arraycopy(planets, i + 1, planets, i, numBodies - i - 1);
+		numBodies--;
+		planets[numBodies] = null;
+		snapshot = null;
+	}
+	
 	/** Removes all Bodies from the system. */
 	public void clearBodies(){
 		for (int i = 0; i < numBodies; i++){
+			planets[i].owner = null;
 			planets[i] = null;
 		}
 		numBodies = 0;
+		numSolved = 0;
+		snapshot = null;
 	}
 	
-	/** Sets the year of the system to any arbitrary number, and rotates all Bodies to their position at that time. */
-	public void changeYear(int year){
+	/**
+	 * Sets the year of the system to any arbitrary number, and rotates all Bodies to their position at that time. Synchronized only
+	 * so that getSnapshot() can't take a picture half way through.
+	 */
+	public synchronized void changeYear(long year){
+		StarlockEvents.ChangeYear event = new StarlockEvents.ChangeYear();
+		event.begin();
 		this.year = year;
-		int delta = year - conjunction; // The number of years until the conjunction
-		int m = 0;
+		bigYear = null;
+		long delta = year - conjunction; // The number of years until the conjunction
+		if (((year ^ delta) & (conjunction ^ year)) < 0) {
+			// The subtraction overflowed, so the long path can't be trusted. Hand it over to the BigInteger version.
+			changeYear(BigInteger.valueOf(year));
+			return;
+		}
 		// Now, or every Body in the system...
 		for (int i = 0; i < numBodies; i++){
 			// What rotation (in minutes) will this Body be at?
-			// Just see how many rotations we have made, given the period.
-			m = MINUTES * pmod(delta, planets[i].getPeriod()) / planets[i].getPeriod();
-			planets[i].setMinutes(m);
+			// Just see how far through its period it is. The Body knows whether that's a circle or an ellipse.
+			planets[i].move(planets[i].minutesAt(pmod(delta, planets[i].getPeriod())));
+		}
+		snapshot = null; // Out of date. Rebuilt when somebody asks for it.
+		if (event.shouldCommit()) {
+			event.bodies = numBodies;
+			event.year = year;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Arbitrary precision version of changeYear, for years that don't fit in a long. The difference from the conjunction is reduced
+	 * by each period straight from its bytes, so there's only one BigInteger subtraction however many Bodies there are.
+	 */
+	public synchronized void changeYear(BigInteger year){
+		BigInteger delta = year.subtract(BigInteger.valueOf(conjunction));
+		if (year.bitLength() < 64 && delta.bitLength() < 64) {
+			changeYear(year.longValue());
+			return;
+		}
+		this.year = year.longValue(); // Truncated. Use getYearExact() for the real thing.
+		bigYear = year;
+		byte[] magnitude = delta.abs().toByteArray();
+		boolean negative = delta.signum() < 0;
+		for (int i = 0; i < numBodies; i++){
+			long p = planets[i].getPeriod();
+			long r = pmod(magnitude, p);
+			if (negative && r != 0) {r = p - r;}
+			planets[i].move(planets[i].minutesAt(r));
+		}
+		snapshot = null;
+	}
+	
+	/** Sets the year and every body's angle at once, for YearStepper.apply. The angles must be the right ones for that year. */
+	synchronized void setYear(long year, int[] minutes){
+		this.year = year;
+		bigYear = null;
+		for (int i = 0; i < numBodies; i++){
+			planets[i].move(minutes[i]);
+		}
+		snapshot = null;
+	}
+	
+	/**
+	 * Returns a YearStepper that walks this system from one year up to (but not including) another, step years at a time. Much
+	 * faster than calling changeYear for every year, for scrubbing through time or sweeping a range looking for something.
+	 */
+	public YearStepper stepper(long from, long to, long step){
+		return new YearStepper(this, from, to, step);
+	}
+	
+	/**
+	 * Returns the angle, in minutes, of a body on a circular orbit with the given period after delta years from the conjunction.
+	 * This is the heart of changeYear, and is safe from overflow for any period.
+	 */
+	public static int minutesAt(long delta, long period){
+		return scale(pmod(delta, period), period);
+	}
+	
+	/**
+	 * Returns MINUTES * r / period, rounded down, for 0 <= r < period. The obvious way to write this overflows once r gets past
+	 * about 4 * 10^14, so in that case we do the multiplication one bit of MINUTES at a time, carrying into the quotient whenever
+	 * the remainder passes the period. It never leaves the long range and never allocates.
+	 */
+	public static int scale(long r, long period){
+		if (r <= Long.MAX_VALUE / MINUTES) {return (int) (MINUTES * r / period);}
+		int quotient = 0;
+		long remainder = 0; // Always in [0, period).
+		for (int bit = 31 - Integer.numberOfLeadingZeros(MINUTES); bit >= 0; bit--) {
+			// Double...
+			quotient <<= 1;
+			if (remainder >= period - remainder) {remainder -= period - remainder; quotient++;}
+			else {remainder += remainder;}
+			// ...and add r if this bit of MINUTES is set.
+			if (((MINUTES >> bit) & 1) == 1) {
+				if (remainder >= period - r) {remainder -= period - r; quotient++;}
+				else {remainder += r;}
+			}
+		}
+		return quotient;
+	}
+	
+	/**
+	 * The inverse of scale: returns the smallest r with scale(r, period) >= minutes, for 0 <= minutes <= MINUTES. So a body is at
+	 * angle m for exactly the residues [firstResidue(m, period), firstResidue(m + 1, period)).
+	 */
+	public static long firstResidue(int minutes, long period){
+		// ceil(minutes * period / MINUTES), split as period = q * MINUTES + s so that nothing overflows.
+		long q = period / MINUTES;
+		long s = period % MINUTES;
+		return minutes * q + (minutes * s + MINUTES - 1) / MINUTES;
+	}
+	
+	/** Reduces a big-endian unsigned magnitude (as from BigInteger.toByteArray) modulo a positive period. */
+	private static long pmod(byte[] magnitude, long period){
+		long r = 0;
+		for (int i = 0; i < magnitude.length; i++){
+			int b = magnitude[i] & 0xFF;
+			if (r <= (Long.MAX_VALUE - 255) >> 8) {
+				r = ((r << 8) + b) % period;
+			} else {
+				// Shift one bit at a time, keeping r below the period.
+				for (int k = 0; k < 8; k++) {r = (r >= period - r) ? r - (period - r) : r + r;}
+				r = (r >= period - b) ? r - (period - b) : r + b;
+			}
 		}
+		return r;
 	}
 	
 	/** Positive Modulus. Returns a % b, but always positive. This has the effect of constraining the result to a number between 0 and (b - 1), with wrapping. */
@@ -119,39 +269,87 @@ public class Starlock {
 		return (((a % b) + b) % b);
 		// Ex. -60 % 25 = -10; -10 + 25 = 15; 15 % 25 = 15; Returns 15.
 	}
+
+	/** Positive Modulus for longs. Same as above, but careful not to overflow when a % b + b is larger than a long can hold. */
+	public static long pmod(long a, long b){
+		long r = a % b;
+		return (r < 0) ? r + b : r;
+	}
 	
-	/** Prints the current state of all Bodies in the system. */
+	/** Prints the current state of all Bodies in the system. For more than one year, see PositionExporter. */
 	public String toString(){
-		String out = "";	
+		StringBuilder out = new StringBuilder();
 		for (int i = 0; i < numBodies; i++){
-			out += "Planet " + i + "; Minutes = " + planets[i].getMinutes() + "\n";
+			out.append("Planet ").append(i).append("; Minutes = ").append(planets[i].getMinutes()).append('\n');
 		}
-		return out;
+		return out.toString();
 	}
 	
-	public int getYear() {
+	public long getYear() {
 		return year;
 	}
 	
-	/** Returns the array of all Body objects in the system. */
+	/** Returns the current year, even if it was set past the range of a long. */
+	public BigInteger getYearExact() {
+		return (bigYear != null) ? bigYear : BigInteger.valueOf(year);
+	}
+	
+	/** Returns the Body objects in the system. The array is a copy, so changing it doesn't change the system. */
 	public Body[] getBodies() {
-		return planets;
+		return Arrays.copyOf(planets, numBodies);
+	}
+	
+	/** Returns body i. Cheaper than getBodies() when you only want one. */
+	public Body getBody(int i) {
+		if (i >= numBodies) {throw new IndexOutOfBoundsException("Body " + i + " of " + numBodies);}
+		return planets[i];
+	}
+	
+	/**
+	 * Returns the latest snapshot of the system: its year and where every body is. Snapshots never change, so this is safe to call
+	 * from any thread while another thread is calling changeYear. You'll see either the old year or the new one, never a mix.
+	 * (Only one thread at a time should be changing the system, though, and bodies should be added or removed before the system
+	 * is shared.)
+	 *
+	 * Snapshots are only taken when asked for, so the first call after the bodies move takes one, waiting for any changeYear in
+	 * progress to finish. Every call after that, until they move again, just reads it, with no locking at all.
+	 */
+	public StarlockSnapshot getSnapshot() {
+		StarlockSnapshot s = snapshot;
+		if (s != null) {return s;}
+		synchronized (this) {
+			if (snapshot == null) {snapshot = new StarlockSnapshot(year, bigYear, planets, numBodies);}
+			return snapshot;
+		}
 	}
 	
 	// A few more important getters/setters
-	public int getConjunctionYear() {return conjunction;}
-	public void setConjunctionYear(int c) {conjunction = c;}
+	public long getConjunctionYear() {return conjunction;}
+	public void setConjunctionYear(long c) {conjunction = c;}
 	public String getTitle() {return title;}
 	public void setTitle(String s) {title = s;}
 	
 	/**
-	 * Checks to see if the current puzzle is solved -- i.e. all planets are in their circles.
+	 * Checks to see if the current puzzle is solved -- i.e. all planets are in their circles. No need to look at every planet:
+	 * they tell us whenever they go in or out of their circles, so we just compare the count.
 	 * @return
 	 */
 	public Boolean isSolved(){
-		for (int i = 0; i < numBodies; i++) {
-			if (!planets[i].isSolved()) {return false;}
-		}
-		return true;
+		return numSolved == numBodies;
+	}
+	
+	/** Returns how many bodies are on their solutions right now. */
+	public int getNumSolved(){
+		return numSolved;
+	}
+	
+	/** Called by a Body in this system when it goes on to (or off) its solution. */
+	void solvedChanged(boolean wasSolved){
+		numSolved += wasSolved ? -1 : 1;
+	}
+	
+	/** Called by a Body in this system, under the lock, when it's been moved by hand: the snapshot doesn't show that. */
+	void bodiesChanged(){
+		snapshot = null;
 	}
 }
@@ -0,0 +1,65 @@
+package starlock;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the interesting parts of Starlock. Start the game with -XX:StartFlightRecording (or attach
+ * JDK Mission Control) and these show up under "Starlock", each with its duration. When nobody is recording they cost next to
+ * nothing: every call site checks shouldCommit() before filling anything in.
+ */
+public class StarlockEvents {
+
+	@Name("starlock.ChangeYear")
+	@Label("Change Year")
+	@Category("Starlock")
+	@Description("Starlock.changeYear rotating every body to a new year")
+	public static class ChangeYear extends Event {
+		@Label("Bodies") public int bodies;
+		@Label("Year") public long year;
+	}
+
+	@Name("starlock.LevelLoad")
+	@Label("Level Load")
+	@Category("Starlock")
+	@Description("Indexing a level file, or parsing a level out of one")
+	public static class LevelLoad extends Event {
+		@Label("Source") public String source;
+		@Label("Level") @Description("The level parsed, or -1 for indexing the whole file") public int level;
+		@Label("Levels") public int levels;
+		@Label("Bodies") public int bodies;
+	}
+
+	@Name("starlock.AssetDecode")
+	@Label("Asset Decode")
+	@Category("Starlock")
+	@Description("Reading and converting an image for the asset cache")
+	public static class AssetDecode extends Event {
+		@Label("Reference") public String ref;
+		@Label("Width") public int width;
+		@Label("Height") public int height;
+		@Label("Size") @DataAmount public long bytes;
+	}
+
+	@Name("starlock.UpdatePass")
+	@Label("Update Pass")
+	@Category("Starlock")
+	@Description("One tick of BodyGUI.update over every body on screen")
+	public static class UpdatePass extends Event {
+		@Label("Bodies") public int bodies;
+		@Label("Moving") @Description("Bodies that were still rotating towards the model") public int moving;
+	}
+
+	@Name("starlock.PaintFrame")
+	@Label("Paint Frame")
+	@Category("Starlock")
+	@Description("Drawing one whole frame of the game")
+	public static class PaintFrame extends Event {
+		@Label("Bodies") public int bodies;
+		@Label("Static Layer Rebuilt") public boolean staticRebuilt;
+	}
+}
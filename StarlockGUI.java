@@ -5,24 +5,35 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Insets;
 import java.awt.Point;
 import java.awt.RenderingHints;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
-import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.Timer;
@@ -41,7 +52,7 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 	private final int centerY = 350; // 
 	private JFrame jWnd;
 	
-	private ArrayList<Starlock> slLevels;
+	private List<Starlock> slLevels; // Usually a LevelIndex, which reads each level from the file when it's first needed.
 	private int iLevel; // The currently displayed level.
 	
 	private BodyGUI[] planets;
@@ -53,6 +64,21 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 	private DigitBox submit; // Submit button
 	
 	Timer agT; // Our timer object
+	RenderLoop rLoop; // Used instead of the timer when active rendering is turned on.
+	
+	// Active rendering draws from a dedicated thread into a BufferStrategy instead of going through Swing's repaint().
+	// Turn it on with -Dstarlock.active=true, and set the frame rate with -Dstarlock.fps=60.
+	private static final boolean ACTIVE_RENDERING = Boolean.getBoolean("starlock.active");
+	private static final int FRAME_RATE = Math.max(1, Integer.getInteger("starlock.fps", 40)); // At least 1, or there's no frame to wait for.
+	
+	private final Object stateLock = new Object(); // Guards the game state when the render loop and Swing's thread both touch it.
+	
+	// Reloads the level file whenever it's saved, for writing levels without restarting. Turn it on with -Dstarlock.watch=true.
+	private static final boolean WATCH_LEVELS = Boolean.getBoolean("starlock.watch");
+	private LevelWatcher watcher;
+	
+	// An overlay of frame timings, for tracking down stutter. Turn it on with -Dstarlock.hud=true.
+	private final PerfHud hud = Boolean.getBoolean("starlock.hud") ? new PerfHud(FRAME_RATE) : null;
 	
 	// Keep track of the status of the game
 	private final int GAME_LOADING = 0; // The application has just started and is still loading resources.
@@ -65,19 +91,93 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 	private BufferedImage background;
 	private BufferedImage cback; // An image for each control button
 	private BufferedImage[] numerals; // Each numeral 0-6 is an image
+	
+	// The numerals, the digit boxes' backgrounds and the planets, all pre-scaled into one image. See SpriteAtlas.
+	private final SpriteAtlas atlas = new SpriteAtlas();
+	private final int[] numeralSprites = new int[7];
 	private BufferedImage success; // When you've won!
 	
 	// Level data file
 	private final String levels_path = "resources/Levels.txt";
+	private final String pack_path = "resources/Levels.slp"; // A binary level pack. Used instead of the text file when it's there.
 	
 	// Font
 	private Font fStarlock;
 	
+	private RenderLayer staticLayer; // Background, guide lines, orbits and the sun, drawn once per level.
+	private StarlockSnapshot frameSnapshot; // The picture of the model the frame being drawn comes from. See render().
+	private StarlockSnapshot staticSnapshot; // The one the static layer's solution circles were last drawn from.
+	
+	// Levels with this many bodies or more are drawn as an asteroid belt: dots and batched orbits instead of a picture per body.
+	// See BeltRenderer. Change it with -Dstarlock.belt=1000.
+	private static final int BELT_THRESHOLD = Integer.getInteger("starlock.belt", 2000);
+	private BeltRenderer belt; // Null unless the current level is a belt...
+	private BeltRenderer beltRenderer; // ...in which case it's this one, made the first time a level needed it.
+	
+	// Startup loading, spread over a few worker threads. The threads go away by themselves once they've been idle for a second.
+	private ExecutorService loader;
+	private final AtomicInteger loadTotal = new AtomicInteger(); // Loading jobs started...
+	private final AtomicInteger loadDone = new AtomicInteger(); // ...and finished. Together they make the progress bar.
+	
+	// Everything random in the game comes from here, so that a recorded game can be replayed exactly. See InputRecorder.
+	private final long seed;
+	private final Random random;
+	
+	// Records every input to a log for replaying later. Turn it on with -Dstarlock.record=path/to/log.
+	private static final String RECORD_PATH = System.getProperty("starlock.record");
+	private InputRecorder recorder;
+	private String levelSource = ""; // The level file we're playing, for the log.
+	
 	public StarlockGUI(){
+		seed = System.nanoTime();
+		random = new Random(seed);
 		jWnd = new JFrame("Starlock");
 		jWnd.setResizable(false);
 		jWnd.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		jWnd.setLocationRelativeTo(null);
+		setupPanel();
+		jWnd.add(this); // This StarlockGUI class is a panel that sits inside the frame
+		jWnd.pack();
+		jWnd.setVisible(true);
+		
+		// Get the window drawing first, so there's a progress bar to look at while everything loads.
+		if (ACTIVE_RENDERING) {
+			jWnd.createBufferStrategy(2);
+			rLoop = new RenderLoop(() -> renderFrame(), FRAME_RATE);
+			rLoop.start();
+		} else {
+			agT = new Timer(Math.max(1, 1000 / FRAME_RATE), this); // Create and start the timer
+			agT.start();
+		}
+		
+		// Comes back straight away. The game starts itself once the first level is ready.
+		startLoading(null).exceptionally(e -> {
+			e.printStackTrace();
+			System.out.println("Could not start the game.");
+			return null;
+		});
+	}
+	
+	/**
+	 * Sets up the game without a window or a timer, for benchmarks and tools. Nothing happens on its own: call tick() to move
+	 * the game along, render() to draw it wherever you like, and the mouse methods to play.
+	 * @param levels -- the levels to play, or null to load them from the level file as usual.
+	 */
+	public StarlockGUI(List<Starlock> levels){
+		this(levels, new Random());
+	}
+	
+	/** As above, with the given source of randomness. The same levels and seed always make the same game. */
+	public StarlockGUI(List<Starlock> levels, Random random){
+		seed = 0;
+		this.random = random;
+		setupPanel();
+		setSize(width, height);
+		setupGame(levels);
+	}
+	
+	/** Sets up this panel's size, colors and listeners. */
+	private void setupPanel(){
 		this.setPreferredSize(new Dimension(width, height));
 		this.setBackground(Color.black);
 		this.setDoubleBuffered(true);
@@ -85,52 +185,184 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		this.setFocusTraversalKeysEnabled(false);
 		this.addMouseListener(this);
 		this.addMouseMotionListener(this);
-		jWnd.add(this); // This StarlockGUI class is a panel that sits inside the frame
-		jWnd.pack();
-		jWnd.setVisible(true);
-		
+	}
+	
+	/**
+	 * Loads the resources and levels and starts the first level. Waits until it's playable, and throws if it never will be, rather
+	 * than leaving a benchmark or a replay to measure the loading screen.
+	 */
+	private void setupGame(List<Starlock> levels){
+		try {
+			startLoading(levels).join();
+		} catch (CompletionException e) {
+			throw new IllegalStateException("Could not start the game", e.getCause());
+		}
+	}
+	
+	/**
+	 * Starts loading the images and levels, all at once, on a few worker threads, and returns straight away. Meanwhile the game
+	 * sits in GAME_LOADING showing a progress bar. As soon as the first level and everything it needs are in (its planets, the
+	 * controls), the game starts; the background, the success screen and the rest of the levels keep loading behind it.
+	 * @param levels -- the levels to play, or null to load them from the level file.
+	 * @return a future that completes when the first level is playable, or completes exceptionally if it can't be.
+	 */
+	private CompletableFuture<Void> startLoading(final List<Starlock> levels){
 		fStarlock = new Font("Impact", Font.PLAIN, 20);
+		staticLayer = new RenderLayer(width, height, g2d -> paintStatic(g2d));
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "Starlock loader");
+			t.setDaemon(true);
+			return t;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		loader = pool;
 		
-		loadAllImages(); // Stuff like the background and numerals and things
-		setupDigitBoxes(); // Now that numerals are loaded...Create and place the digit box buttons.
-
-		slLevels = new ArrayList<Starlock>();
-		// Read in the file and create the levels.
-		if (!loadLevels()) {setupDefaultLevel();}
-		
-		iLevel = 0; // Start on the first level
-		beginLevel(); // Go into the current level
+		CompletableFuture<Void> controls = loadAllImages(); // Stuff like the background and numerals and things
 		
-		agT = new Timer(25, this); // Create and start the timer
-		agT.start();
+		// Read in the file and create the levels. Then get the first level's planets in.
+		// The list is only handed over to slLevels under the lock, once the game starts, so nothing else can swap it in the meantime.
+		CompletableFuture<List<Starlock>> found = load(() -> {
+			List<Starlock> list = levels;
+			if (list == null || list.isEmpty()) {
+				list = loadLevels();
+				if (list == null) {
+					list = new ArrayList<Starlock>();
+					setupDefaultLevel(list);
+				}
+			}
+			list.get(0); // Parses it, if it's a LevelIndex.
+			return list;
+		});
+		CompletableFuture<Void> firstLevel = found.thenCompose(list -> {
+			Starlock SL = list.get(0);
+			ArrayList<CompletableFuture<?>> looks = new ArrayList<CompletableFuture<?>>();
+			for (int j = 0; j < SL.getNumBodies(); j++) {
+				final String look = SL.getBody(j).getLook();
+				if (look.charAt(0) != '#') {looks.add(load(() -> loadImage(look)));}
+			}
+			return CompletableFuture.allOf(looks.toArray(new CompletableFuture<?>[0]));
+		});
 		
-		iGameState = GAME_PLAYING; // Start the game now
+		return CompletableFuture.allOf(controls, firstLevel).thenRun(() -> {
+			final List<Starlock> list = found.join();
+			synchronized (stateLock) {
+				slLevels = list;
+				setupDigitBoxes(); // Now that numerals are loaded...Create and place the digit box buttons.
+				iLevel = 0; // Start on the first level
+				beginLevel(); // Go into the current level
+				iGameState = GAME_PLAYING; // Start the game now
+				if (RECORD_PATH != null && jWnd != null) {startRecording();}
+			}
+			wake();
+			// Only now that the levels are ours can a reload safely replace them.
+			if (WATCH_LEVELS && levelSource.equals(levels_path) && list instanceof LevelIndex) {startWatching((LevelIndex) list);}
+			// Nobody's waiting on these, so they can take their time.
+			if (list instanceof LevelIndex) {loader.execute(() -> ((LevelIndex) list).parseAll());}
+			synchronized (stateLock) {prefetchLevel(1);}
+		});
+	}
+	
+	/** Opens the input log. Everything from here on goes in it, until the game exits. */
+	private void startRecording(){
+		try {
+			recorder = new InputRecorder(Paths.get(RECORD_PATH), seed, levelSource);
+		} catch (IOException e) {
+			System.out.println("Could not record to " + RECORD_PATH + ": " + e.getMessage());
+			return;
+		}
+		final InputRecorder r = recorder;
+		// Not under the state lock: the game quits from inside mousePressed, which already holds it.
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {r.close();} catch (IOException e) {e.printStackTrace();}
+		}));
+		System.out.println("Recording input to " + RECORD_PATH);
+	}
+	
+	/** One event for the input log. */
+	private interface Recording {
+		public void to(InputRecorder r) throws IOException;
+	}
+	
+	/** Writes an event to the input log, if we're recording. Call with the state lock held, so events go in the order they happen. */
+	private void record(Recording event){
+		if (recorder == null) {return;}
+		try {
+			event.to(recorder);
+		} catch (IOException e) {
+			System.out.println("Stopped recording: " + e.getMessage());
+			recorder = null;
+		}
+	}
+	
+	/** Runs one loading job on the loader threads, counting it for the progress bar. */
+	private <T> CompletableFuture<T> load(Supplier<T> job){
+		loadTotal.incrementAndGet();
+		return CompletableFuture.supplyAsync(job, loader).whenComplete((result, e) -> {
+			loadDone.incrementAndGet();
+			wake(); // Move the progress bar along.
+		});
+	}
+	
+	/** Draws the progress bar for GAME_LOADING. */
+	private void paintLoading(Graphics2D g2d){
+		int total = Math.max(1, loadTotal.get());
+		int done = Math.min(loadDone.get(), total);
+		g2d.setColor(Color.black);
+		g2d.fillRect(0, 0, width, height);
+		g2d.setFont(fStarlock);
+		g2d.setColor(Color.cyan);
+		g2d.drawString("Loading...", centerX - 40, centerY - 20);
+		g2d.setColor(Color.darkGray);
+		g2d.fillRect(centerX - 150, centerY, 300, 16);
+		g2d.setColor(Color.cyan);
+		g2d.fillRect(centerX - 150, centerY, 300 * done / total, 16);
+		g2d.setColor(Color.gray);
+		g2d.drawRect(centerX - 150, centerY, 300, 16);
 	}
 	
 	//========================================================/ Painting Methods /===================================================/
 	
 	public void paint(Graphics g){
+		if (rLoop != null) {
+			// Active rendering: the render loop does the drawing. Swing only tells us the window needs it, e.g. after being uncovered.
+			rLoop.wake();
+			return;
+		}
 		super.paint(g);
-		Graphics2D g2d = (Graphics2D) g;
+		synchronized (stateLock) {
+			render((Graphics2D) g);
+		}
+	}
+	
+	/**
+	 * Draws the whole game. Called by paint() normally, or by the render loop with active rendering.
+	 */
+	public void render(Graphics2D g2d){
+		long start = System.nanoTime();
+		if (hud != null) {hud.frameStart(start);}
+		StarlockEvents.PaintFrame event = new StarlockEvents.PaintFrame();
+		event.begin();
 		
 		// Rendering hints make things look pretty!
 		RenderingHints rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		g2d.setRenderingHints(rh);
 		
-		if (iGameState == GAME_LOADING) {return;} //Don't draw anything if we're still initializing
-		
-		if (background != null) {
-			g2d.drawImage(background, 0, 0, null);
+		if (iGameState == GAME_LOADING) {
+			// Nothing to draw but how far along we are.
+			if (fStarlock != null) {paintLoading(g2d);}
+			return;
 		}
 		
-		// Paint radial lines
-		g2d.setColor(Color.gray);
-		// + shape
-		g2d.drawLine(width/2, 0, width/2, centerY*2);
-		g2d.drawLine(0, centerY, width, centerY);
-		// x shape
-		g2d.drawLine(0, 0, width, centerY*2);
-		g2d.drawLine(width, 0, 0, centerY*2);
+		// Everything about the model that this frame shows comes from one snapshot, never from the Bodies themselves.
+		frameSnapshot = slLevels.get(iLevel).getSnapshot();
+		
+		// The background, guides and orbits hardly ever change, so they come out of a cached layer. It only needs redrawing
+		// when a solution circle changes color, which the snapshots can tell us without going through every planet (the same
+		// snapshot as last time means nothing has moved at all); beginLevel() takes care of new levels.
+		boolean bRebuild = staticSnapshot == null || !frameSnapshot.sameSolved(staticSnapshot);
+		if (bRebuild) {staticLayer.invalidate();}
+		staticLayer.draw(g2d, getGraphicsConfiguration());
 
 		paintBodies(g2d);
 		paintControls(g2d);
@@ -145,17 +377,48 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		if (iGameState == GAME_SUCCESS) {
 			g2d.drawImage(success, centerX - 144, centerY, null);
 		}
+		
+		if (event.shouldCommit()) {
+			event.bodies = planets.length;
+			event.staticRebuilt = bRebuild;
+			event.commit();
+		}
+		if (hud != null) {
+			hud.paint(System.nanoTime() - start);
+			hud.draw(g2d, width);
+		}
 	}
 
 	
 	/**
-	 * Draws the planets and the central star.
-	 * @param g
+	 * Draws everything that stays put during a level: the background, the radial guide lines, the orbits and solution circles,
+	 * and the central star. This goes into the static layer rather than straight to the screen.
+	 * @param g2d
 	 */
-	public void paintBodies(Graphics2D g2d){
+	public void paintStatic(Graphics2D g2d){
+		// Rendering hints make things look pretty!
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		
-		for (int i = 0; i < planets.length; i++){
-			planets[i].paint(g2d, centerX, centerY);
+		if (background != null) {
+			g2d.drawImage(background, 0, 0, null);
+		}
+		
+		// Paint radial lines
+		g2d.setColor(Color.gray);
+		// + shape
+		g2d.drawLine(width/2, 0, width/2, centerY*2);
+		g2d.drawLine(0, centerY, width, centerY);
+		// x shape
+		g2d.drawLine(0, 0, width, centerY*2);
+		g2d.drawLine(width, 0, 0, centerY*2);
+		
+		staticSnapshot = frameSnapshot;
+		if (belt != null) {
+			belt.paintOrbits(g2d, planets, frameSnapshot);
+		} else {
+			for (int i = 0; i < planets.length; i++){
+				planets[i].paintOrbit(g2d, centerX, centerY, frameSnapshot.isSolved(i));
+			}
 		}
 		
 		// Draw the sun
@@ -163,6 +426,20 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		g2d.drawOval(centerX - 10, centerY - 10, 20, 20);	
 	}
 	
+	/**
+	 * Draws the planets themselves. Their orbits and the central star are in the static layer.
+	 * @param g
+	 */
+	public void paintBodies(Graphics2D g2d){
+		if (belt != null) {
+			belt.paintBodies(g2d, planets);
+			return;
+		}
+		for (int i = 0; i < planets.length; i++){
+			planets[i].paintBody(g2d, centerX, centerY);
+		}
+	}
+	
 	/**
 	 * Draws the digit boxes.
 	 * @param g
@@ -171,8 +448,8 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		// Paint the digital display
 		for (int i = 0; i < NUM_DIGITS; i++) {
 			db[i].draw(g2d);
-			// Paint numbers on top
-			g2d.drawImage(numerals[db[i].getValue()], db[i].x, db[i].y, db[i].x + db[i].width, db[i].y + db[i].height, 0, 0, numerals[i].getWidth(), numerals[i].getHeight(), null);
+			// Paint numbers on top, already scaled to fit the box.
+			atlas.draw(g2d, numeralSprites[db[i].getValue()], db[i].x, db[i].y);
 		}
 		// Now paint the "submit" button
 		submit.draw(g2d);
@@ -184,39 +461,104 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 	// Swing Timer will call this every time a cycle is induced!
 	@Override
 	public void actionPerformed(ActionEvent ae) {
-		
-		switch (iGameState) {
-		case GAME_LOADING:
-			// Do nothing.
-			break;
-		case GAME_PLAYING:
-			// Playing the puzzle
-			// If the current level is solved then go to the next level.
-			Boolean bLevelSolved = true; // Assume we solved the level
-			
-			for (int i = 0; i < planets.length; i++) {
-				// Update the planets and check if they deviate from the model
-				if (Math.abs(planets[i].update(50)) > 0) {
-					bLevelSolved = false;
+		boolean bBusy = tick();
+		repaint(); // This triggers the paint() function above. We need to do this to force a redrawing every cycle.
+		// If nothing is moving, there's no point waking up 40 times a second. wake() restarts the timer.
+		if (!bBusy) {agT.stop();}
+	}
+	
+	/**
+	 * One frame of active rendering: update the game and draw it straight into the window's BufferStrategy.
+	 * Returns true if there's still something moving.
+	 */
+	private boolean renderFrame() {
+		BufferStrategy bs = jWnd.getBufferStrategy();
+		boolean bBusy = tick();
+		Insets in = jWnd.getInsets();
+		do {
+			do {
+				Graphics2D g2d = (Graphics2D) bs.getDrawGraphics();
+				g2d.translate(in.left, in.top);
+				g2d.setColor(Color.black);
+				g2d.fillRect(0, 0, width, height);
+				synchronized (stateLock) {render(g2d);}
+				g2d.dispose();
+			} while (bs.contentsRestored());
+			bs.show();
+		} while (bs.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+		return bBusy;
+	}
+	
+	/**
+	 * Moves the game along by one frame: rotates the planets towards the model and checks for a solved level.
+	 * Returns true if anything is still changing, or false if the views are in sync with the model and there's nothing to animate.
+	 */
+	public boolean tick() {
+		synchronized (stateLock) {
+			record(r -> r.tick());
+			boolean bBusy = false;
+			switch (iGameState) {
+			case GAME_LOADING:
+				// Do nothing.
+				break;
+			case GAME_PLAYING:
+				// Playing the puzzle
+				// If the current level is solved then go to the next level.
+				Boolean bLevelSolved = true; // Assume we solved the level
+				long start = System.nanoTime();
+				StarlockEvents.UpdatePass event = new StarlockEvents.UpdatePass();
+				event.begin();
+				int moving = 0;
+				// Work from one snapshot of the model, so we see one whole year even if the model changes while we're drawing.
+				StarlockSnapshot snap = slLevels.get(iLevel).getSnapshot();
+				
+				for (int i = 0; i < planets.length; i++) {
+					// Update the planets and check if they deviate from the model
+					if (Math.abs(planets[i].update(50, snap.getMinutes(i))) > 0) {
+						bLevelSolved = false;
+						bBusy = true;
+						moving++;
+					}
 				}
-				if (!slLevels.get(iLevel).isSolved()) { bLevelSolved = false;}
+				// Once for the whole level, not once per planet -- with a belt of thousands that adds up.
+				if (!snap.isSolved()) { bLevelSolved = false;}
 				if (bLevelSolved) {iGameState = GAME_SUCCESS;} // Signal that we need to move to the next level, but don't do so yet. We do that when the user clicks their assent.
-			}		
-		case GAME_SUCCESS:
-			break;
-		default:
-			// Do nothing here
-		}
 				
-		repaint(); // This triggers the paint() function above. We need to do this to force a redrawing every cycle.
+				if (event.shouldCommit()) {
+					event.bodies = planets.length;
+					event.moving = moving;
+					event.commit();
+				}
+				if (hud != null) {hud.update(System.nanoTime() - start);}
+				// While they admire the success screen, get the next level's images ready.
+				if (iGameState == GAME_SUCCESS) {
+					prefetchLevel(iLevel + 1);
+					bBusy = true; // One more frame, to show the success message.
+				}
+			case GAME_SUCCESS:
+				break;
+			default:
+				// Do nothing here
+			}
+			return bBusy;
+		}
+	}
+	
+	/**
+	 * Call this when something has changed that needs drawing. Resumes the timer or render loop if it went idle.
+	 */
+	public void wake() {
+		if (rLoop != null) {rLoop.wake();}
+		else if (agT != null && !agT.isRunning()) {agT.start();}
 	}
 	
 	/** What happens when you click the "submit" button. */
 	public void submit(){
 		System.out.println("You clicked on the submit button!");
-		// Calculate the year; convert from heptal to decimal
-		int year = 0; 
-		int multiplier = 1;
+		// Calculate the year; convert from heptal to decimal. Long, so that more digits don't overflow.
+		long year = 0; 
+		long multiplier = 1;
 		// each digit has a multiplier
 		// 0th: 1
 		// 1st: 7
@@ -229,92 +571,171 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		}
 		// Boom we're done
 		slLevels.get(iLevel).changeYear(year);
+		final long y = year;
+		record(r -> r.submit(y));
+	}
+	
+	/** Returns the year of the level being played. */
+	public long getYear() {
+		synchronized (stateLock) {return slLevels.get(iLevel).getYear();}
+	}
+	
+	/** Returns which level is being played, counting from 0. */
+	public int getLevel() {
+		synchronized (stateLock) {return iLevel;}
 	}
 	
 	//==============================================/ Setup and Loading Functions /==============================/
 	
 	/**
 	 * Loads an image given a file name. It's made static so that other modules can use it; it's nice 'n generic.
+	 * Images come out of the shared AssetCache, so each file is only decoded once.
 	 * @param ref
 	 * @return
 	 */
 	public static BufferedImage loadImage(String ref){
-		BufferedImage source = null;
-		try {
-			source = ImageIO.read(new File(ref));
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println("Could not load file: " + ref);
-			return null;
-		}
-		return source;
+		return AssetCache.get(ref);
+	}
+
+	/**
+	 * Starts loading the images for the given level in the background, so they're ready by the time we get there. Getting the
+	 * level happens in the background too: from a LevelIndex that can mean parsing it, and a big level is no quick job.
+	 */
+	public void prefetchLevel(final int i){
+		final List<Starlock> levels = slLevels;
+		if (i >= levels.size()) {return;}
+		loader.execute(() -> {
+			Starlock SL = levels.get(i);
+			LinkedHashSet<String> looks = new LinkedHashSet<String>(); // A belt has thousands of bodies, but not many looks.
+			Body[] bodies = SL.getBodies();
+			for (int j = 0; j < SL.getNumBodies(); j++) {
+				if (bodies[j].getLook().charAt(0) != '#') {looks.add(bodies[j].getLook());}
+			}
+			AssetCache.prefetch(looks);
+		});
 	}
 
 	/**
-	 * Loads all image resources needed.
+	 * Starts loading all image resources needed, each on a loader thread. Returns a future that completes once the ones the
+	 * controls need (the button background and the numerals) are in. The background and the success screen just turn up when
+	 * they're ready; until then there's a plain black sky.
 	 */
-	public void loadAllImages(){
-		background = loadImage("resources/background.png");
-		cback = loadImage("resources/control_back.png"); // 340 x 340 px	
+	public CompletableFuture<Void> loadAllImages(){
+		load(() -> loadImage("resources/background.png")).thenAccept(img -> {
+			synchronized (stateLock) {
+				background = img;
+				staticLayer.invalidate();
+			}
+			wake();
+		});
+		load(() -> loadImage("resources/success.png")).thenAccept(img -> {
+			synchronized (stateLock) {success = img;}
+		});
 		
 		numerals = new BufferedImage[7]; // 0-6
+		CompletableFuture<?>[] parts = new CompletableFuture<?>[8];
 		for (int i = 0; i < 7; i++) {
-			numerals[i] = loadImage("resources/" + i + ".png");
+			final int n = i;
+			parts[i] = load(() -> loadImage("resources/" + n + ".png")).thenAccept(img -> numerals[n] = img);
 		}
-		
-		success = loadImage("resources/success.png");
+		parts[7] = load(() -> loadImage("resources/control_back.png")).thenAccept(img -> cback = img); // 340 x 340 px
+		return CompletableFuture.allOf(parts);
 	}
 	
 	/**
-	 * Loads level data for the game, initializing appropriate structures with that data. Returns false on a failure.
+	 * Loads level data for the game, from the level pack if there is one, otherwise from the text file. Either way the file is only
+	 * indexed here; each level is read the first time beginLevel() needs it. Returns the levels, or null on a failure.
 	 */
-	public Boolean loadLevels(){
-		Path fp = Paths.get(levels_path);
-		Charset charset = Charset.forName("UTF-8");
-		try (BufferedReader reader = Files.newBufferedReader(fp, charset)) {
-			String line = null;
-			Starlock SL = new Starlock(); // The current level that we're reading/creating. We create one just in case.
-			
-			// Now read the whole file, line by line, until we get a null
-			while ((line = reader.readLine()) != null) {
-				// TODO This whole thing will give serious errors if the file isn't formatted correctly.
-				System.out.println(line);
-				if (line.startsWith("LEVEL")) {
-					// Now...
-					// Make a new level. We'll be modifying and adding content to it on further lines in the file
-					SL = new Starlock();
-					SL.setTitle(line.substring(6));
-					slLevels.add(SL);
-				} else if (line.startsWith("CONJUNCTION")) {
-					// Set conjunction year
-					String c = line.substring(12); // Get rid of "CONJUNCTION "
-					SL.setConjunctionYear(Integer.parseInt(c)); // Turn that into an int and we're good.
-				} else if (line.startsWith("BODY")){
-					// Gotta create a new body
-					String sp[] = line.substring(5).split(","); // Substring past "BODY " and then split on commas
-					int distance = Integer.parseInt(sp[0].trim()); // Gotta trim to get rid of whitespace
-					int period = Integer.parseInt(sp[1].trim());
-					int solution = Integer.parseInt(sp[2].trim());
-					String look = sp[3].trim();
-					SL.addBody(distance, period, solution, look);
-				} else {
-					// Do nothing
-				}
-			}
+	public List<Starlock> loadLevels(){
+		List<Starlock> index;
+		boolean pack = usePack();
+		try {
+			if (pack) {index = LevelPack.open(Paths.get(pack_path));}
+			else if (WATCH_LEVELS) {index = LevelIndex.read(Paths.get(levels_path));} // Read rather than mapped, since we expect the file to change under us.
+			else {index = LevelIndex.open(Paths.get(levels_path));}
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Could not load Level data.");
-			return false;
+			return null;
 		}
 		
-		if (slLevels.isEmpty()) {return false;}
+		if (index.isEmpty()) {return null;}
+		levelSource = pack ? pack_path : levels_path;
+		return index;
+	}
+	
+	/** Starts watching the level file, which the given levels were read from, for edits. See levelsReloaded(). */
+	private void startWatching(LevelIndex text){
+		watcher = new LevelWatcher(Paths.get(levels_path), text, (levels, changed) -> levelsReloaded(levels, changed));
+		try {
+			watcher.start();
+		} catch (IOException e) {
+			System.out.println("Could not watch the level file: " + e.getMessage()); // We can still play.
+		}
+	}
+	
+	/**
+	 * Returns true if the levels should come from the pack rather than the text file. Not if there isn't one, not if we're watching
+	 * the text file for edits, and not if the text file has been saved since the pack was made: that pack is out of date.
+	 */
+	private boolean usePack(){
+		Path pack = Paths.get(pack_path), text = Paths.get(levels_path);
+		if (!Files.exists(pack)) {return false;}
+		if (WATCH_LEVELS) {
+			System.out.println("Watching " + levels_path + " for edits, so " + pack_path + " is ignored.");
+			return false;
+		}
+		try {
+			if (Files.exists(text) && Files.getLastModifiedTime(pack).compareTo(Files.getLastModifiedTime(text)) < 0) {
+				System.out.println(pack_path + " is older than " + levels_path + "; loading the text file instead. Rebuild the pack with LevelPack.");
+				return false;
+			}
+		} catch (IOException e) {
+			// Can't tell how old they are. Go with the pack, as we always have.
+		}
 		return true;
 	}
 	
+	/**
+	 * Called from the LevelWatcher when the level file has been saved. Swaps in the new levels in one go, and if the level being
+	 * played was edited, rebuilds it in place: same year, same digits dialled in.
+	 */
+	private void levelsReloaded(LevelIndex levels, BitSet changed) {
+		if (levels.isEmpty()) {
+			System.out.println("Level file has no levels in it; keeping the old ones.");
+			return;
+		}
+		synchronized (stateLock) {
+			Starlock old = slLevels.get(iLevel);
+			// If our level is still there, untouched, follow it, in case levels were added or removed before it.
+			int next = iLevel;
+			for (int i = 0; i < levels.size(); i++) {
+				if (levels.isParsed(i) && levels.get(i) == old) {next = i;}
+			}
+			if (next >= levels.size()) {next = levels.size() - 1;}
+			Starlock level = levels.get(next);
+			if (level == old) {
+				slLevels = levels;
+				iLevel = next;
+			} else {
+				// Build the new level's views before swapping anything in. If the file was saved halfway through an edit this throws,
+				// and the game carries on with the old levels until the next save.
+				level.changeYear(old.getYearExact());
+				BodyGUI[] built = buildPlanets(level);
+				slLevels = levels;
+				iLevel = next;
+				System.out.println("Reloaded level " + iLevel + ": " + level.getTitle());
+				showLevel(built);
+				if (iGameState == GAME_SUCCESS) {iGameState = GAME_PLAYING;} // Maybe it isn't solved any more. tick() will see.
+			}
+		}
+		wake();
+	}
+	
 	/**
 	 * If the Levels file cannot be found or loaded, then set up a default puzzle.
 	 */
-	public void setupDefaultLevel(){
+	public void setupDefaultLevel(List<Starlock> levels){
 		Starlock SL = new Starlock();
 		// When you add a new body, it is automatically placed at 0 degrees
 		SL.addBody(30, 2);
@@ -328,23 +749,16 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		// Set year to 0, and calculate positions (positions NOT calculated unless you do this). This 'unsolves' the puzzle.
 		SL.changeYear(0); // Set year to 0 and calculate positions.
 		// Add it to the array list
-		slLevels.add(SL);
+		levels.add(SL);
 	}
 	
 	/**
 	 * Takes a level in the array list of levels and builds a visual display of BodyGUIs for it. Also resets digit boxes.
 	 */
 	public void beginLevel() {
+		record(r -> r.level(iLevel));
 		slLevels.get(iLevel).changeYear(0);
-		// Now let's get all these guys and make use of them in our GUI
-		Body temp[] = slLevels.get(iLevel).getBodies();
-		
-		planets = new BodyGUI[slLevels.get(iLevel).getNumBodies()]; // Make our overlay structure the same size
-		
-		for (int i = 0; i < planets.length; i++) {
-			planets[i] = new BodyGUI(temp[i]);
-			planets[i].calcLoc();
-		}	
+		showLevel();
 		// Clear the digit boxes
 		for (int i = 0; i < NUM_DIGITS; i++) {
 			db[i].setValue(0);
@@ -352,6 +766,37 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		submit.setValue(0);
 	}
 	
+	/** Builds the BodyGUIs for the current level, wherever it is in time. The digit boxes are left alone. */
+	private void showLevel() {
+		showLevel(buildPlanets(slLevels.get(iLevel)));
+	}
+	
+	/** Shows a level whose BodyGUIs have already been built. */
+	private void showLevel(BodyGUI[] built) {
+		planets = built; // Only ever swapped in whole: render() must never see one half built.
+		atlas.pack(); // Any new planet pictures get scaled now, not in the middle of drawing the first frame.
+		if (planets.length >= BELT_THRESHOLD) {
+			if (beltRenderer == null) {beltRenderer = new BeltRenderer(width, height, centerX, centerY);}
+			belt = beltRenderer;
+		} else {
+			belt = null;
+		}
+		staticLayer.invalidate(); // New orbits to draw.
+		staticSnapshot = null;
+	}
+	
+	/** Makes a BodyGUI for every body in a level. Throws if one of them can't be drawn, e.g. a look of "#12". */
+	private BodyGUI[] buildPlanets(Starlock level) {
+		// Now let's get all these guys and make use of them in our GUI
+		Body temp[] = level.getBodies();
+		BodyGUI[] built = new BodyGUI[level.getNumBodies()]; // Make our overlay structure the same size
+		for (int i = 0; i < built.length; i++) {
+			built[i] = new BodyGUI(temp[i], atlas);
+			built[i].calcLoc();
+		}
+		return built;
+	}
+	
 	/**
 	 * Creates NUM_DIGITS amount of digit boxes in the right location on screen.
 	 * @param background
@@ -360,9 +805,16 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		db = new DigitBox[NUM_DIGITS];
 		int j = 0;
 		for (; j < NUM_DIGITS; j++){
-			db[j] = new DigitBox(j*70+143, 700, 64, 64, cback);
+			db[j] = new DigitBox(j*70+143, 700, 64, 64, cback, random);
+			db[j].useAtlas(atlas, "control" + j);
+		}
+		submit = new DigitBox(j*70+143, 700, 64, 64, cback, random);
+		submit.useAtlas(atlas, "control" + j);
+		// And the numerals, at the size of a box.
+		for (int i = 0; i < 7; i++) {
+			numeralSprites[i] = atlas.add("numeral" + i, numerals[i], db[0].width, db[0].height);
 		}
-		submit = new DigitBox(j*70+143, 700, 64, 64, cback);	
+		atlas.pack();
 	}
 	
 	//==================================================/ MouseListener Events /==============================================/
@@ -375,17 +827,21 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 		
 		Point p = e.getPoint();
 		
-		if (iGameState == GAME_PLAYING) {
+		synchronized (stateLock) {
+			record(r -> r.move(p.x, p.y));
+			if (iGameState == GAME_PLAYING) {
+				
+				// Check and see if the mouse is hovering over a control
+				for (int i = 0; i < NUM_DIGITS; i++){
+					if (db[i].contains(p)){db[i].setState(1);}
+					else {db[i].setState(0);}
+				}
 			
-			// Check and see if the mouse is hovering over a control
-			for (int i = 0; i < NUM_DIGITS; i++){
-				if (db[i].contains(p)){db[i].setState(1);}
-				else {db[i].setState(0);}
+				if (submit.contains(p)) {submit.setState(1);}
+				else {submit.setState(0);}
 			}
-		
-			if (submit.contains(p)) {submit.setState(1);}
-			else {submit.setState(0);}
 		}
+		wake(); // The highlight may have moved.
 	}
 	
 	@Override
@@ -402,30 +858,37 @@ public class StarlockGUI extends JPanel implements MouseListener, MouseMotionLis
 
 		Point p = e.getPoint();
 		
-		switch (iGameState) {
-		case GAME_LOADING:
-			break;
-		case GAME_PLAYING:
-			// Check and see if we clicked on a number control
-			for (int i = 0; i < NUM_DIGITS; i++){
-				if (db[i].contains(p)){db[i].click();}
-			}			
-			// Check and see if we clicked on submit button
-			if (submit.contains(p)) {submit();}
-			break;
-		case GAME_SUCCESS:
-			// You clicked! Go on to the next level, but don't go past the end of the array list
-			iLevel++;
-			if (iLevel >= slLevels.size()) {
-				// Gotta quit
-				jWnd.dispose();
-				System.exit(0);
+		synchronized (stateLock) {
+			record(r -> r.press(p.x, p.y));
+			switch (iGameState) {
+			case GAME_LOADING:
+				break;
+			case GAME_PLAYING:
+				// Check and see if we clicked on a number control
+				for (int i = 0; i < NUM_DIGITS; i++){
+					if (db[i].contains(p)){db[i].click();}
+				}			
+				// Check and see if we clicked on submit button
+				if (submit.contains(p)) {submit();}
+				break;
+			case GAME_SUCCESS:
+				// You clicked! Go on to the next level, but don't go past the end of the array list
+				iLevel++;
+				if (iLevel >= slLevels.size()) {
+					// Gotta quit
+					if (jWnd != null) {
+						jWnd.dispose();
+						System.exit(0);
+					}
+					iLevel = 0; // Without a window there's nothing to quit, so go round again.
+				}
+				beginLevel();
+				iGameState = GAME_PLAYING;
+				break;
+			default:	
 			}
-			beginLevel();
-			iGameState = GAME_PLAYING;
-			break;
-		default:	
-		}		
+		}
+		wake();
 	}
 
 	@Override
@@ -0,0 +1,240 @@
+package starlock;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * StarlockServer plays Starlock without a GUI, for any number of clients at once, over a simple line-based protocol on a local
+ * socket. Every connection is a session with its own level, year and body positions. The levels themselves are shared by everyone
+ * as immutable LevelDefinitions, so a session costs little more than an array of minutes.
+ *
+ * Each session gets its own thread: a virtual thread where the JVM has them (Java 21 and up), or an ordinary pooled thread where
+ * it doesn't. Sessions spend nearly all their time waiting for their client, which is exactly what virtual threads are for.
+ *
+ * The protocol, one command per line, UTF-8. Every reply starts with OK or ERR.
+ * <pre>
+ * LEVELS          OK count
+ * LEVEL n         OK title               (switches to level n, at year 0)
+ * BODIES          OK count, then one "BODY distance, period, solution, look[, eccentricity, periapsis]" line per body, as in
+ *                 Levels.txt. The last two are only there for elliptical orbits.
+ * YEAR y          OK m0 m1 ...           (moves to year y and gives each body's minutes)
+ * STATE           OK year SOLVED|UNSOLVED m0 m1 ...
+ * SUBMIT digits   OK SOLVED|UNSOLVED year  (the digits are base 7, as dialled on the lock, most significant first)
+ * QUIT            OK BYE
+ * </pre>
+ */
+public class StarlockServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	public static final int DEFAULT_PORT = 7700;
+
+	private final List<Starlock> levels;
+	private final AtomicReferenceArray<LevelDefinition> definitions; // Built from levels on first use.
+	private final ExecutorService sessions = newSessionExecutor();
+	private final AtomicInteger activeSessions = new AtomicInteger();
+	private volatile ServerSocket server;
+
+	/**
+	 * Serves levels to local clients until killed.
+	 * Usage: StarlockServer [port] [levelFile]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		Path path = Paths.get((args.length > 1) ? args[1] : "resources/Levels.txt");
+		List<Starlock> levels = LevelPack.isPack(path) ? LevelPack.open(path) : LevelIndex.open(path);
+		System.out.println("Serving " + levels.size() + " levels on port " + port);
+		new StarlockServer(levels).serve(port);
+	}
+
+	/** @param levels -- the levels on offer. Only read from, never changed. */
+	public StarlockServer(List<Starlock> levels) {
+		if (levels.isEmpty()) {throw new IllegalArgumentException("No levels to serve");}
+		this.levels = levels;
+		definitions = new AtomicReferenceArray<LevelDefinition>(levels.size());
+	}
+
+	/**
+	 * Makes a virtual thread per task executor if this JVM has one, or a cached pool of daemon threads if it doesn't. Looked up by
+	 * reflection so the game still builds and runs on older Java versions.
+	 */
+	static ExecutorService newSessionExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "Starlock session");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/** Returns level n's definition. Shared by every session playing it. */
+	public LevelDefinition getLevel(int n) {
+		LevelDefinition def = definitions.get(n);
+		if (def == null) {
+			Starlock sl;
+			synchronized (levels) {sl = levels.get(n);} // A LevelIndex or LevelPack is fine with this, but a plain list might not be.
+			definitions.compareAndSet(n, null, new LevelDefinition(sl));
+			def = definitions.get(n);
+		}
+		return def;
+	}
+
+	/** Accepts connections on the given local port, one session each, until close() is called. Doesn't return until then. */
+	public void serve(int port) throws IOException {
+		server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+		try {
+			while (!server.isClosed()) {
+				final Socket socket;
+				try {
+					socket = server.accept();
+				} catch (IOException e) {
+					if (server.isClosed()) {break;} // close() was called.
+					throw e;
+				}
+				sessions.execute(() -> new Session().run(socket));
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	/** Stops accepting connections. Sessions already going are left to finish. */
+	public void close() throws IOException {
+		if (server != null) {server.close();}
+	}
+
+	/** Returns the port we're listening on, or -1 if we aren't yet. */
+	public int getPort() {
+		ServerSocket s = server;
+		return (s == null) ? -1 : s.getLocalPort();
+	}
+
+	/** Returns the number of sessions connected right now. */
+	public int getActiveSessions() {
+		return activeSessions.get();
+	}
+
+	/** One player's game. Only ever touched by its own thread. */
+	class Session {
+		private LevelDefinition level;
+		private long year;
+		private int[] minutes;
+
+		Session() {
+			setLevel(0);
+		}
+
+		private void setLevel(int n) {
+			level = getLevel(n);
+			minutes = new int[level.getNumBodies()];
+			year = 0;
+			level.minutesAt(year, minutes);
+		}
+
+		/** Reads commands from the socket and answers them until the client quits or goes away. */
+		void run(Socket socket) {
+			activeSessions.incrementAndGet();
+			try (Socket s = socket;
+				 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), UTF8));
+				 Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), UTF8))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					boolean more = handle(line.trim(), out);
+					out.flush();
+					if (!more) {break;}
+				}
+			} catch (IOException e) {
+				// The client went away. Nothing to do but tidy up.
+			} finally {
+				activeSessions.decrementAndGet();
+			}
+		}
+
+		/** Answers one command. Returns false when the session should end. */
+		boolean handle(String line, Writer out) throws IOException {
+			int space = line.indexOf(' ');
+			String command = ((space < 0) ? line : line.substring(0, space)).toUpperCase();
+			String arg = (space < 0) ? "" : line.substring(space + 1).trim();
+			try {
+				switch (command) {
+				case "LEVELS":
+					out.write("OK " + levels.size() + "\n");
+					break;
+				case "LEVEL":
+					int n = Integer.parseInt(arg);
+					if (n < 0 || n >= levels.size()) {throw new IllegalArgumentException("no level " + n);}
+					setLevel(n);
+					out.write("OK " + level.getTitle() + "\n");
+					break;
+				case "BODIES":
+					out.write("OK " + level.getNumBodies() + "\n");
+					for (int i = 0; i < level.getNumBodies(); i++) {
+						String orbit = (level.getEccentricity(i) == 0) ? "" : ", " + level.getEccentricity(i) + ", " + level.getPeriapsis(i);
+						out.write("BODY " + level.getDistance(i) + ", " + level.getPeriod(i) + ", " + level.getSolution(i) + ", " + level.getLook(i) + orbit + "\n");
+					}
+					break;
+				case "YEAR":
+					year = Long.parseLong(arg);
+					level.minutesAt(year, minutes);
+					out.write("OK");
+					writeMinutes(out);
+					break;
+				case "STATE":
+					out.write("OK " + year + (level.isSolved(minutes) ? " SOLVED" : " UNSOLVED"));
+					writeMinutes(out);
+					break;
+				case "SUBMIT":
+					year = parseHeptal(arg);
+					level.minutesAt(year, minutes);
+					out.write("OK " + (level.isSolved(minutes) ? "SOLVED " : "UNSOLVED ") + year + "\n");
+					break;
+				case "QUIT":
+					out.write("OK BYE\n");
+					return false;
+				default:
+					out.write("ERR unknown command: " + command + "\n");
+				}
+			} catch (IllegalArgumentException e) {
+				// Bad numbers end up here too, as NumberFormatException.
+				out.write("ERR " + e.getMessage() + "\n");
+			}
+			return true;
+		}
+
+		private void writeMinutes(Writer out) throws IOException {
+			StringBuilder sb = new StringBuilder(minutes.length * 6 + 1);
+			for (int m : minutes) {sb.append(' ').append(m);}
+			out.write(sb.append('\n').toString());
+		}
+	}
+
+	/** Reads a year written in base 7, as dialled on the lock. */
+	static long parseHeptal(String digits) {
+		if (digits.isEmpty()) {throw new NumberFormatException("missing digits");}
+		long year = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			int d = digits.charAt(i) - '0';
+			if (d < 0 || d > 6) {throw new NumberFormatException("not a base 7 digit: " + digits.charAt(i));}
+			if (year > (Long.MAX_VALUE - d) / 7) {throw new NumberFormatException("too many digits");}
+			year = year * 7 + d;
+		}
+		return year;
+	}
+}
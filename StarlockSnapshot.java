@@ -0,0 +1,67 @@
+package starlock;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+/**
+ * A StarlockSnapshot is a frozen picture of a Starlock system at one moment: the year, where every body was, and whether that
+ * solved the puzzle. It can't change after it's made, so any thread can read it without locks and without ever seeing half of
+ * one year and half of another.
+ *
+ * Starlock makes a new one the first time it's asked after its bodies move, and hands it out through a volatile field; see
+ * Starlock.getSnapshot(). The game logic can then change years on one thread while the drawing code reads the latest snapshot on
+ * another. It has everything drawing needs, even which solution circles should be green, so drawing never has to look at the
+ * Bodies themselves.
+ */
+public final class StarlockSnapshot {
+
+	private final long year;
+	private final BigInteger bigYear; // Only when the year doesn't fit in a long. Null otherwise.
+	private final int[] minutes;
+	private final BitSet solvedBodies; // Which bodies were on their solutions. Never handed out, so it can't be changed.
+	private final int numSolved;
+
+	/** Takes a copy of the positions; nobody else gets to hold on to the array. */
+	StarlockSnapshot(long year, BigInteger bigYear, Body[] bodies, int numBodies) {
+		this.year = year;
+		this.bigYear = bigYear;
+		minutes = new int[numBodies];
+		solvedBodies = new BitSet(numBodies);
+		for (int i = 0; i < numBodies; i++) {
+			minutes[i] = bodies[i].getMinutes();
+			if (minutes[i] == bodies[i].getSolution()) {solvedBodies.set(i);}
+		}
+		numSolved = solvedBodies.cardinality();
+	}
+
+	/** Returns the year, truncated if it's too large for a long. */
+	public long getYear() {return year;}
+
+	/** Returns the exact year. */
+	public BigInteger getYearExact() {return (bigYear != null) ? bigYear : BigInteger.valueOf(year);}
+
+	public int getNumBodies() {return minutes.length;}
+
+	/** Returns the angle of body i, in minutes. */
+	public int getMinutes(int i) {return minutes[i];}
+
+	/** Returns a copy of every body's angle. */
+	public int[] getMinutes() {return minutes.clone();}
+
+	/** Returns true if every body was on its solution. Worked out once, when the snapshot was taken. */
+	public boolean isSolved() {return numSolved == minutes.length;}
+
+	/** Returns true if body i was on its solution. */
+	public boolean isSolved(int i) {return solvedBodies.get(i);}
+
+	/** Returns how many bodies were on their solutions. */
+	public int getNumSolved() {return numSolved;}
+
+	/**
+	 * Returns true if exactly the same bodies were solved in both snapshots, i.e. the solution circles haven't changed. Quick even
+	 * for a belt of thousands: the counts usually differ if anything has, and otherwise it's one bit per body to compare.
+	 */
+	public boolean sameSolved(StarlockSnapshot other) {
+		return other == this || (numSolved == other.numSolved && solvedBodies.equals(other.solvedBodies));
+	}
+}
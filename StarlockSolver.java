@@ -0,0 +1,250 @@
+package starlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * StarlockSolver finds the years at which a Starlock puzzle is solved without trying them one at a time.
+ *
+ * Each Body is solved only when pmod(year - conjunction, period) lands on a particular residue (or a short run of residues,
+ * for periods longer than a full circle of minutes). Every Body therefore gives us a congruence, and the Chinese Remainder Theorem
+ * glues those congruences together into a handful of residue classes modulo the LCM of all the periods. Periods don't need to be
+ * coprime; congruences that contradict each other simply leave no solution.
+ */
+public class StarlockSolver {
+
+	/** Guard against pathological systems: if the number of residue classes grows past this, we give up rather than run out of memory. */
+	public static final int MAX_CLASSES = 1 << 20;
+
+	/**
+	 * A quick test of the solver. Builds the default puzzle from StarlockGUI and prints when it is solved.
+	 */
+	public static void main(String[] args) {
+		Starlock SL = new Starlock();
+		SL.addBody(30, 2);
+		SL.addBody(60, 3);
+		SL.addBody(100, 9);
+		SL.addBody(150, 11);
+		SL.addBody(200, 21);
+		SL.addBody(250, 23);
+		SL.addBody(300, 49);
+		SL.setConjunctionYear(5035);
+
+		Solution s = solve(SL);
+		System.out.println("Starlock - SOLVER\n");
+		System.out.println(s);
+		System.out.println("First solution on or after year 0: " + s.firstYearFrom(0));
+	}
+
+	/**
+	 * The set of all years which solve a puzzle: every year congruent to one of the residues, modulo the modulus.
+	 * If there are no residues, the puzzle can never be solved.
+	 */
+	public static class Solution {
+
+		private final long modulus; // The LCM of all the periods. The solution repeats with this cycle.
+		private final long[] residues; // Sorted solving years in [0, modulus).
+
+		Solution(long modulus, long[] residues) {
+			this.modulus = modulus;
+			this.residues = residues;
+		}
+
+		/** Returns true if there is at least one year that solves the puzzle. */
+		public boolean isSolvable() {return residues.length > 0;}
+
+		/** The length of the cycle after which the solutions repeat. */
+		public long getModulus() {return modulus;}
+
+		/** Returns a copy of the solving residues, sorted, each in [0, modulus). */
+		public long[] getResidues() {return residues.clone();}
+
+		/** Returns true if the given year solves the puzzle. */
+		public boolean isSolution(long year) {
+			return Arrays.binarySearch(residues, Starlock.pmod(year, modulus)) >= 0;
+		}
+
+		/** Returns the smallest solving year that is >= from, or Long.MIN_VALUE if there is none. */
+		public long firstYearFrom(long from) {
+			if (residues.length == 0) {return Long.MIN_VALUE;}
+			long r = Starlock.pmod(from, modulus);
+			long base = from - r; // The start of the cycle containing 'from'.
+			int i = Arrays.binarySearch(residues, r);
+			if (i < 0) {i = -i - 1;} // Insertion point: the first residue past r.
+			if (i == residues.length) {return base + modulus + residues[0];} // Wrap into the next cycle.
+			return base + residues[i];
+		}
+
+		/** Returns every solving year in the half-open range [from, to), in order. */
+		public long[] yearsInRange(long from, long to) {
+			ArrayList<Long> years = new ArrayList<Long>();
+			if (residues.length > 0) {
+				long y = firstYearFrom(from);
+				long base = y - Starlock.pmod(y, modulus);
+				int i = Arrays.binarySearch(residues, y - base);
+				while (y < to) {
+					years.add(y);
+					i++;
+					if (i == residues.length) {
+						i = 0;
+						base += modulus;
+					}
+					y = base + residues[i];
+				}
+			}
+			long[] out = new long[years.size()];
+			for (int k = 0; k < out.length; k++) {out[k] = years.get(k);}
+			return out;
+		}
+
+		/** Describes the solution as a set of arithmetic progressions. */
+		public String toString() {
+			if (residues.length == 0) {return "No solution";}
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < residues.length; i++) {
+				sb.append("year = ").append(residues[i]).append(" + ").append(modulus).append("k\n");
+			}
+			return sb.toString();
+		}
+	}
+
+	/** Solves the given puzzle, in its current state (bodies, solution angles and conjunction year). */
+	public static Solution solve(Starlock sl) {
+		Body[] bodies = sl.getBodies();
+		int n = sl.getNumBodies();
+		long[] periods = new long[n];
+		long[] lo = new long[n];
+		long[] hi = new long[n];
+		for (int i = 0; i < n; i++) {
+			// Ask the body itself, so elliptical orbits get their own runs.
+			int s = bodies[i].getSolution();
+			periods[i] = bodies[i].getPeriod();
+			lo[i] = bodies[i].firstResidue(s);
+			hi[i] = bodies[i].firstResidue(s + 1) - 1;
+		}
+		return solve(periods, lo, hi, sl.getConjunctionYear());
+	}
+
+	/**
+	 * Solves a puzzle given the bodies' periods, solution angles (in minutes) and the conjunction year.
+	 * @param periods -- the orbital period of each body, in years. Must be positive.
+	 * @param solutions -- the solution angle of each body, in minutes.
+	 * @param conjunction -- the year at which all bodies are at 0 minutes.
+	 */
+	public static Solution solve(long[] periods, int[] solutions, long conjunction) {
+		int n = periods.length;
+
+		// First pass: work out each body's run of solving residues. This is cheap, and catches the unreachable angles straight away,
+		// since with a period shorter than a full circle the truncation in changeYear skips over most angles.
+		long[] lo = new long[n];
+		long[] hi = new long[n];
+		for (int i = 0; i < n; i++) {
+			int s = Starlock.pmod(solutions[i], Starlock.MINUTES);
+			lo[i] = Starlock.firstResidue(s, periods[i]);
+			hi[i] = Starlock.firstResidue(s + 1, periods[i]) - 1;
+		}
+		return solve(periods, lo, hi, conjunction);
+	}
+
+	/** The rest of solve, given each body's run of solving residues [lo, hi], inclusive. Works for any kind of orbit. */
+	private static Solution solve(long[] periods, long[] lo, long[] hi, long conjunction) {
+		int n = periods.length;
+		for (int i = 0; i < n; i++) {
+			if (periods[i] <= 0) {throw new IllegalArgumentException("Period must be positive: " + periods[i]);}
+		}
+		for (int i = 0; i < n; i++) {
+			if (lo[i] > hi[i]) {return new Solution(1, new long[0]);} // Nobody can stop at this angle.
+		}
+
+		// Combine the bodies with a single solving residue first; they narrow things down without multiplying the number of classes.
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {order[i] = i;}
+		final long[] width = new long[n];
+		for (int i = 0; i < n; i++) {width[i] = hi[i] - lo[i];}
+		Arrays.sort(order, (a, b) -> Long.compare(width[a], width[b]));
+
+		long modulus = 1;
+		long[] classes = {0};
+		for (int k = 0; k < n; k++) {
+			int i = order[k];
+			long p = periods[i];
+			long g = gcd(modulus, p);
+			long newModulus = Math.multiplyExact(modulus / g, p);
+			ArrayList<Long> next = new ArrayList<Long>();
+			for (long a : classes) {
+				for (long r = lo[i]; r <= hi[i]; r++) {
+					// We need year - conjunction = r (mod p), i.e. year = conjunction + r (mod p).
+					long b = Starlock.pmod(Starlock.pmod(conjunction, p) + r, p);
+					long x = crt(a, modulus, b, p, g, newModulus);
+					if (x >= 0) {
+						next.add(x);
+						if (next.size() > MAX_CLASSES) {throw new ArithmeticException("Too many solution classes to enumerate");}
+					}
+				}
+			}
+			modulus = newModulus;
+			classes = new long[next.size()];
+			for (int j = 0; j < classes.length; j++) {classes[j] = next.get(j);}
+			if (classes.length == 0) {break;} // Contradictory congruences: no solution, no need to look at the rest.
+		}
+
+		Arrays.sort(classes);
+		return new Solution(modulus, classes);
+	}
+
+	/**
+	 * Merges x = a (mod m) with x = b (mod n), where g = gcd(m, n) and l = lcm(m, n). Returns the merged residue in [0, l), or -1
+	 * if the two congruences contradict each other.
+	 */
+	static long crt(long a, long m, long b, long n, long g, long l) {
+		long diff = b - a;
+		if (diff % g != 0) {return -1;}
+		long ng = n / g;
+		if (ng == 1) {return Starlock.pmod(a, l);}
+		// Solve m * t = diff (mod n) for t, i.e. t = (diff / g) * inverse(m / g) (mod n / g).
+		long t = mulMod(Starlock.pmod(diff / g, ng), inverse(Starlock.pmod(m / g, ng), ng), ng);
+		// a + m * t < m * (n / g) = l, so this doesn't overflow as long as l doesn't.
+		return Starlock.pmod(a + m * t, l);
+	}
+
+	/** Greatest common divisor. */
+	static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return Math.abs(a);
+	}
+
+	/** Modular inverse of a (mod n), where a and n are coprime. Extended Euclid. */
+	static long inverse(long a, long n) {
+		long t = 0, newT = 1;
+		long r = n, newR = a;
+		while (newR != 0) {
+			long q = r / newR;
+			long tmp = t - q * newT; t = newT; newT = tmp;
+			tmp = r - q * newR; r = newR; newR = tmp;
+		}
+		return Starlock.pmod(t, n);
+	}
+
+	/** Returns (a * b) mod n, for a and b in [0, n), without overflowing. */
+	static long mulMod(long a, long b, long n) {
+		if (a == 0 || b <= Long.MAX_VALUE / a) {return (a * b) % n;}
+		// Double-and-add, keeping everything below n.
+		long result = 0;
+		a %= n;
+		while (b > 0) {
+			if ((b & 1) == 1) {result = addMod(result, a, n);}
+			a = addMod(a, a, n);
+			b >>= 1;
+		}
+		return result;
+	}
+
+	/** Returns (a + b) mod n, for a and b in [0, n), without overflowing. */
+	private static long addMod(long a, long b, long n) {
+		return (a >= n - b) ? a - (n - b) : a + b;
+	}
+}
@@ -0,0 +1,49 @@
+package starlock;
+
+/**
+ * TrigTable is a PositionProvider that looks up cosines and sines instead of calculating them. Angles are always a whole number
+ * of minutes between 0 and 21599, so one table entry per minute covers everything. The entries are filled in with exactly the
+ * same expressions the MATH provider uses, which means the results are identical to the last pixel; only the cost changes.
+ * There's only one table, shared by every BodyGUI.
+ */
+public class TrigTable implements PositionProvider {
+
+	/** The shared instance. The tables are about 340 KB, so there's no reason to have more than one. */
+	public static final TrigTable INSTANCE = new TrigTable();
+
+	private final double[] cos; // cos of (minutes - 5400) in radians, indexed by minutes.
+	private final double[] sin; // Likewise for sin.
+
+	/**
+	 * A quick test of the TrigTable class. Checks every angle at every distance from 0 to 500 pixels (and some fractional ones)
+	 * against Math.cos and Math.sin, and reports any pixel that differs.
+	 */
+	public static void main(String[] args) {
+		int mismatches = 0;
+		for (int m = 0; m < Starlock.MINUTES; m++) {
+			for (int d = 0; d <= 500; d++) {
+				double[] distances = {d, d + 0.25, d + 0.5};
+				for (double dist : distances) {
+					if (INSTANCE.getX(m, dist) != MATH.getX(m, dist) || INSTANCE.getY(m, dist) != MATH.getY(m, dist)) {
+						if (mismatches < 10) {System.out.println("Mismatch at minutes = " + m + ", distance = " + dist);}
+						mismatches++;
+					}
+				}
+			}
+		}
+		System.out.println("TrigTable - " + mismatches + " mismatched positions.");
+		if (mismatches > 0) {System.exit(1);}
+	}
+
+	private TrigTable() {
+		cos = new double[Starlock.MINUTES];
+		sin = new double[Starlock.MINUTES];
+		for (int m = 0; m < Starlock.MINUTES; m++) {
+			cos[m] = Math.cos((m - 5400) * MINUTES_TO_RADIANS);
+			sin[m] = Math.sin((m - 5400) * MINUTES_TO_RADIANS);
+		}
+	}
+
+	public int getX(int minutes, double distance) {return (int) (cos[minutes] * distance);}
+	public int getY(int minutes, double distance) {return (int) (sin[minutes] * distance);}
+}
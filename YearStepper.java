@@ -0,0 +1,219 @@
+package starlock;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * YearStepper walks a Starlock system through a range of years, a fixed number of years at a time, without redoing the whole
+ * changeYear calculation for every step.
+ *
+ * For each body we keep where it is as a whole number of minutes plus a remainder, i.e. MINUTES * r = minutes * period + rem, where
+ * r is the years since the conjunction modulo the period. Stepping k years adds a fixed amount to each of those, worked out once up
+ * front, and then it's just a couple of comparisons to carry the remainder and wrap around the circle. There's no % or / in the
+ * loop, and everything lives in flat arrays, so it goes about as fast as the memory will let it.
+ *
+ * Bodies on elliptical orbits don't move a fixed number of minutes per step, but their residues still do, so those are stepped the
+ * same way and then all the ellipses get their Kepler's equations solved together, in one batch, each step.
+ *
+ * The stepper is a snapshot: later changes to the Starlock aren't reflected here.
+ */
+public class YearStepper implements Iterator<int[]> {
+
+	private final int numBodies;
+	private final long[] periods;
+	private final int[] solutions;
+	private final long[] residues; // Years since the conjunction, modulo the period. Always in [0, period).
+	private final long[] rems; // MINUTES * residue - minutes * period. Always in [0, period).
+	private final int[] mean; // Current angle of each body, if it were on a circle. Always has MINUTES * r = mean * period + rem.
+	private final int[] minutes; // Current angle of each body. Handed out by next(). The same array as mean if there are no ellipses.
+	private final long[] stepResidues; // step mod period.
+	private final int[] stepMinutes; // How many minutes a step adds, rounded down...
+	private final long[] stepRems; // ...and what's left over, out of the period.
+
+	private final Body[] ellipses; // Copies of the bodies on elliptical orbits...
+	private final int[] ellipseIndex; // ...which body each one is...
+	private final KeplerSolver[] solvers; // ...and the batch solved for them each step.
+	private final double[] anomalies;
+	private final double[] solved;
+
+	private final long step;
+	private final long to;
+	private long year; // The year the minutes are for.
+	private boolean started = false; // False until next() has been called once; the first call hands out the starting year.
+
+	/**
+	 * A quick test of the YearStepper class. Steps a small system through a few years and checks it against changeYear.
+	 */
+	public static void main(String[] args) {
+		Starlock SL = new Starlock();
+		SL.addBody(20, 1);
+		SL.addBody(40, 7);
+		SL.addBody(60, 365);
+		SL.addBody(80, 1000000007);
+		SL.addBody(100, Long.MAX_VALUE);
+
+		System.out.println("Starlock - STEPPING VERSION\n");
+		YearStepper ys = SL.stepper(-5, 5, 1);
+		while (ys.hasNext()) {
+			int[] m = ys.next();
+			SL.changeYear(ys.getYear());
+			StringBuilder sb = new StringBuilder("Year " + ys.getYear() + ":");
+			for (int i = 0; i < m.length; i++) {
+				sb.append(' ').append(m[i]);
+				if (m[i] != SL.getBody(i).getMinutes()) {sb.append(" (should be ").append(SL.getBody(i).getMinutes()).append(')');}
+			}
+			System.out.println(sb);
+		}
+	}
+
+	/**
+	 * @param sl -- the system to step through.
+	 * @param from -- the first year.
+	 * @param to -- stop before this year.
+	 * @param step -- how many years to advance each time. Must be positive.
+	 */
+	public YearStepper(Starlock sl, long from, long to, long step) {
+		if (step <= 0) {throw new IllegalArgumentException("Step must be positive: " + step);}
+		this.step = step;
+		this.to = to;
+		year = from;
+		numBodies = sl.getNumBodies();
+		periods = new long[numBodies];
+		solutions = new int[numBodies];
+		residues = new long[numBodies];
+		rems = new long[numBodies];
+		mean = new int[numBodies];
+		stepResidues = new long[numBodies];
+		stepMinutes = new int[numBodies];
+		stepRems = new long[numBodies];
+
+		Body[] bodies = sl.getBodies();
+		int count = 0;
+		for (int i = 0; i < numBodies; i++) {
+			if (!bodies[i].isCircular()) {count++;}
+		}
+		minutes = (count == 0) ? mean : new int[numBodies];
+		ellipses = new Body[count];
+		ellipseIndex = new int[count];
+		solvers = new KeplerSolver[count];
+		anomalies = new double[count];
+		solved = new double[count];
+		count = 0;
+		for (int i = 0; i < numBodies; i++) {
+			if (bodies[i].isCircular()) {continue;}
+			ellipses[count] = new Body(bodies[i].getDistance(), bodies[i].getPeriod());
+			ellipses[count].setOrbit(bodies[i].getEccentricity(), bodies[i].getPeriapsis());
+			ellipseIndex[count] = i;
+			solvers[count] = KeplerSolver.forEccentricity(bodies[i].getEccentricity());
+			count++;
+		}
+		long conjunction = sl.getConjunctionYear();
+		// from - conjunction can overflow, so reduce each half separately.
+		for (int i = 0; i < numBodies; i++) {
+			long p = bodies[i].getPeriod();
+			periods[i] = p;
+			solutions[i] = bodies[i].getSolution();
+			long r = Starlock.pmod(from, p) - Starlock.pmod(conjunction, p);
+			if (r < 0) {r += p;}
+			residues[i] = r;
+			mean[i] = Starlock.scale(r, p);
+			rems[i] = remainder(r, p);
+			long k = Starlock.pmod(step, p);
+			stepResidues[i] = k;
+			stepMinutes[i] = Starlock.scale(k, p);
+			stepRems[i] = remainder(k, p);
+		}
+		if (ellipses.length > 0) {solveEllipses();}
+	}
+
+	/** Returns (MINUTES * r) mod period without overflowing. */
+	private static long remainder(long r, long period) {
+		if (r <= Long.MAX_VALUE / Starlock.MINUTES) {return Starlock.MINUTES * r % period;}
+		return StarlockSolver.mulMod(Starlock.MINUTES, r, period);
+	}
+
+	/** Returns true if there's another year before the end of the range. */
+	public boolean hasNext() {
+		if (!started) {return year < to;}
+		return year <= Long.MAX_VALUE - step && year + step < to; // Careful: year + step might not fit.
+	}
+
+	/**
+	 * Moves on to the next year and returns the angle of every body in it. The first call returns the starting year. The array is
+	 * reused, so it's overwritten by the next call; copy it if you need to keep it.
+	 */
+	public int[] next() {
+		if (!hasNext()) {throw new NoSuchElementException();}
+		if (started) {advance();}
+		started = true;
+		return minutes;
+	}
+
+	/** Steps every body forward by one step. This is the loop that matters. */
+	private void advance() {
+		year += step;
+		for (int i = 0; i < numBodies; i++) {
+			long p = periods[i];
+			int m = mean[i] + stepMinutes[i];
+			// Carry the remainder. Both are below p, so comparing against p - rem can't overflow where rem + stepRem might.
+			long rem = rems[i];
+			long dr = stepRems[i];
+			if (rem >= p - dr) {rem -= p - dr; m++;}
+			else {rem += dr;}
+			// And go around the circle if the residue passes the period. That's exactly MINUTES minutes.
+			long r = residues[i];
+			long dk = stepResidues[i];
+			if (r >= p - dk) {r -= p - dk; m -= Starlock.MINUTES;}
+			else {r += dk;}
+			residues[i] = r;
+			rems[i] = rem;
+			mean[i] = m;
+		}
+		if (ellipses.length > 0) {solveEllipses();}
+	}
+
+	/** Works out the true angles of the bodies on elliptical orbits, from their residues, all in one batch. */
+	private void solveEllipses() {
+		System.arraycopy(mean, 0, minutes, 0, numBodies);
+		int count = ellipses.length;
+		for (int j = 0; j < count; j++) {anomalies[j] = Body.reduce(ellipses[j].meanAnomaly(residues[ellipseIndex[j]]));}
+		KeplerSolver.solve(solvers, anomalies, solved, count);
+		for (int j = 0; j < count; j++) {
+			int i = ellipseIndex[j];
+			minutes[i] = ellipses[j].minutesAt(residues[i], solved[j]);
+		}
+	}
+
+	/** Returns the year of the angles last returned by next(). */
+	public long getYear() {
+		return year;
+	}
+
+	/** Returns the angle of body i in the current year. */
+	public int getMinutes(int i) {
+		return minutes[i];
+	}
+
+	/** Returns true if every body is on its solution in the current year. */
+	public boolean isSolved() {
+		for (int i = 0; i < numBodies; i++) {
+			if (minutes[i] != solutions[i]) {return false;}
+		}
+		return true;
+	}
+
+	/** Skips ahead to the next year in the range at which the puzzle is solved. Returns false if there isn't one. */
+	public boolean nextSolved() {
+		while (hasNext()) {
+			next();
+			if (isSolved()) {return true;}
+		}
+		return false;
+	}
+
+	/** Moves the bodies of the given Starlock to the current year's angles, as if changeYear had been called. */
+	public void apply(Starlock sl) {
+		if (sl.getNumBodies() != numBodies) {throw new IllegalArgumentException("Different number of bodies");}
+		sl.setYear(year, minutes);
+	}
+}
@@ -0,0 +1,249 @@
+package starlock;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * StarlockBenchmark times the hot paths of the game with JMH: the model (changeYear, isSolved, pmod, the packed kernel, the year
+ * stepper), the views (BodyGUI.update and calcLoc), level loading, and drawing a whole frame off-screen. Each benchmark runs over
+ * several system sizes, in several forked JVMs with warmup iterations first, and everything is built from a fixed random seed so
+ * runs can be compared.
+ *
+ * Each benchmark times only the thing it's named after. Anything it needs done first (a year for the views to chase, a settled
+ * frame to draw) is done in setup, outside the timing.
+ *
+ * Build with: mvn -Pbenchmarks package
+ * Run with:   java -jar target/benchmarks.jar -rf json -rff results.json
+ * or:         java -cp target/benchmarks.jar starlock.StarlockBenchmark [-o results.json] [-f filter]
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xms1g", "-Xmx1g"}) // A fixed heap, so GC doesn't wander between runs.
+public class StarlockBenchmark {
+
+	private static final long SEED = 20130707L; // Fixed, so every run measures the same systems.
+
+	/** Runs every benchmark whose name contains the filter, and writes the results as JMH's JSON. */
+	public static void main(String[] args) throws RunnerException {
+		String out = "results.json";
+		String filter = "";
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-o")) {out = args[i + 1];}
+			else if (args[i].equals("-f")) {filter = args[i + 1];}
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder()
+			.include(StarlockBenchmark.class.getName() + "\\..*" + filter)
+			.resultFormat(ResultFormatType.JSON)
+			.result(out);
+		new Runner(options.build()).run();
+		System.out.println("Results written to " + out);
+	}
+
+	/** A system of n bodies, and the things built from it. */
+	@State(Scope.Thread)
+	public static class Model {
+		@Param({"8", "64", "512", "4096"})
+		public int n;
+
+		Starlock sl;
+		Starlock[] solved; // Two systems with every body solved, which used to be isSolved's worst case.
+		YearStepper stepper;
+		PackedStarlock packed;
+		int[] years = new int[64];
+		int[] out;
+		BodyGUI[] views;
+		int[][] targets = new int[2][]; // Two years' worth of angles for the views to chase, turn about.
+		long year;
+		int turn;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			sl = randomSystem(n, new Random(SEED + n));
+			solved = new Starlock[] {randomSystem(n, new Random(SEED)), randomSystem(n, new Random(SEED + 1))};
+			for (Starlock s : solved) {
+				for (int i = 0; i < n; i++) {s.getBody(i).setSolution(s.getBody(i).getMinutes());}
+			}
+			stepper = sl.stepper(0, Long.MAX_VALUE, 1);
+			packed = new PackedStarlock(sl);
+			for (int i = 0; i < years.length; i++) {years[i] = i;}
+			out = new int[years.length * n];
+
+			views = new BodyGUI[n];
+			for (int i = 0; i < n; i++) {
+				views[i] = new BodyGUI(sl.getBody(i));
+				views[i].calcLoc();
+			}
+			for (int k = 0; k < targets.length; k++) {
+				sl.changeYear(k + 1);
+				targets[k] = sl.getSnapshot().getMinutes();
+			}
+		}
+	}
+
+	/** A whole game, off-screen, with its views already caught up with the model. */
+	@State(Scope.Thread)
+	public static class Frame {
+		@Param({"8", "64", "512", "4096"})
+		public int n;
+
+		StarlockGUI gui;
+		BufferedImage frame;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			gui = new StarlockGUI(Collections.singletonList(randomSystem(n, new Random(SEED + n))), new Random(SEED));
+			frame = new BufferedImage(gui.getWidth(), gui.getHeight(), BufferedImage.TYPE_INT_RGB);
+			// Let the planets finish moving, so every frame we time is just drawing.
+			for (int k = 0; k < 1000 && gui.tick(); k++) {}
+		}
+	}
+
+	/** A level file, as text and as a pack, with the given number of small random levels in it. */
+	@State(Scope.Thread)
+	public static class Levels {
+		@Param({"1000", "100000"})
+		public int levels;
+
+		Path txt, pack;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			txt = Files.createTempFile("starlock-bench", ".txt");
+			pack = Files.createTempFile("starlock-bench", ".slp");
+			List<Starlock> synthetic = new ArrayList<Starlock>();
+			Random rnd = new Random(SEED + levels);
+			for (int i = 0; i < levels; i++) {synthetic.add(randomSystem(2 + rnd.nextInt(7), rnd));}
+			try (Writer w = Files.newBufferedWriter(txt, Charset.forName("UTF-8"))) {LevelPack.writeText(synthetic, w);}
+			LevelPack.write(synthetic, pack);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			Files.deleteIfExists(txt);
+			Files.deleteIfExists(pack);
+		}
+	}
+
+	/** Somewhere for pmod's input to come from, so the JIT can't work the answer out in advance. */
+	@State(Scope.Thread)
+	public static class Counter {
+		int r;
+	}
+
+	@Benchmark
+	public int starlockChangeYear(Model m) {
+		m.sl.changeYear(m.year++);
+		return m.sl.getBody(0).getMinutes();
+	}
+
+	@Benchmark
+	public boolean starlockIsSolved(Model m) {
+		return m.solved[(int) (m.year++ & 1)].isSolved();
+	}
+
+	@Benchmark
+	public int[] yearStepperNext(Model m) {
+		return m.stepper.next();
+	}
+
+	@Benchmark
+	public int[] packedStarlockEvaluate64Years(Model m) {
+		m.packed.evaluate(m.years, m.out);
+		return m.out;
+	}
+
+	/** Every view takes one step towards one year, then the next call towards the other, so they never run out of moving to do. */
+	@Benchmark
+	public long bodyGuiUpdate(Model m) {
+		int[] target = m.targets[m.turn ^= 1];
+		long s = 0;
+		for (int i = 0; i < m.n; i++) {s += m.views[i].update(50, target[i]);}
+		return s;
+	}
+
+	@Benchmark
+	public long bodyGuiCalcLoc(Model m) {
+		long s = 0;
+		for (int i = 0; i < m.n; i++) {
+			m.views[i].calcLoc();
+			s += m.views[i].getX();
+		}
+		return s;
+	}
+
+	@Benchmark
+	public int starlockGuiRender(Frame f) {
+		Graphics2D g = f.frame.createGraphics();
+		f.gui.render(g);
+		g.dispose();
+		return f.frame.getRGB(350, 350);
+	}
+
+	@Benchmark
+	public int starlockPmod(Counter c) {
+		return Starlock.pmod(c.r++ - 1000000, 21600);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int levelIndexOpen(Levels l) throws IOException {
+		return LevelIndex.open(l.txt).size();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int levelIndexParseAll(Levels l) throws IOException {
+		LevelIndex li = LevelIndex.open(l.txt);
+		li.parseAll();
+		return li.get(li.size() - 1).getNumBodies();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void levelPackReadAll(Levels l, Blackhole bh) throws IOException {
+		LevelPack lp = LevelPack.open(l.pack);
+		for (int i = 0; i < lp.size(); i++) {bh.consume(lp.get(i).getNumBodies());}
+	}
+
+	/** Makes a system of n bodies with random periods, solutions and colors. */
+	static Starlock randomSystem(int n, Random rnd) {
+		Starlock SL = new Starlock("Benchmark " + n, rnd.nextInt(16807));
+		for (int i = 0; i < n; i++) {
+			SL.addBody(20 + rnd.nextInt(300), 1 + rnd.nextInt(1000), rnd.nextInt(Starlock.MINUTES), String.format("#%06X", rnd.nextInt(0x1000000)));
+		}
+		SL.changeYear(0);
+		return SL;
+	}
+}